@@ -0,0 +1,150 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session.micrometer;
+
+import de.spinscale.javalin.session.InvalidSessionException;
+import de.spinscale.javalin.session.SessionListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the session processing as Micrometer meters
+ *
+ * <ul>
+ *     <li><code>javalin.session.verification</code> a timer tagged with the <code>outcome</code>, which is either
+ *     <code>verified</code> or the lower case {@link InvalidSessionException.Reason} of a rejected cookie</li>
+ *     <li><code>javalin.session.signing</code> a timer for serializing and signing a session</li>
+ *     <li><code>javalin.session.cookie.size</code> the size of read and written cookies, tagged with the <code>operation</code></li>
+ *     <li><code>javalin.session.cookies</code> a counter tagged with the <code>action</code>, which is either
+ *     <code>written</code>, <code>cleared</code> or <code>too_big</code></li>
+ *     <li><code>javalin.session.attributes.dropped</code> a counter of attributes dropped to fit sessions into the cookie</li>
+ * </ul>
+ *
+ * Percentiles and histograms can be enabled via a meter filter on the registry.
+ */
+public class MicrometerSessionListener implements SessionListener {
+
+    private final Timer verified;
+    private final Map<InvalidSessionException.Reason, Timer> rejected = new EnumMap<>(InvalidSessionException.Reason.class);
+    private final Timer signing;
+    private final DistributionSummary readSize;
+    private final DistributionSummary writeSize;
+    private final Counter written;
+    private final Counter cleared;
+    private final Counter tooBig;
+    private final Counter dropped;
+
+    /**
+     * @param registry      The registry to register the meters with
+     */
+    public MicrometerSessionListener(MeterRegistry registry) {
+        this(registry, Tags.empty());
+    }
+
+    /**
+     * @param registry      The registry to register the meters with
+     * @param tags          Additional tags added to all meters
+     */
+    public MicrometerSessionListener(MeterRegistry registry, Iterable<Tag> tags) {
+        this.verified = verificationTimer(registry, tags, "verified");
+        for (InvalidSessionException.Reason reason : InvalidSessionException.Reason.values()) {
+            rejected.put(reason, verificationTimer(registry, tags, reason.name().toLowerCase(Locale.ROOT)));
+        }
+        this.signing = Timer.builder("javalin.session.signing")
+                .description("Time spent serializing and signing the session")
+                .tags(tags)
+                .register(registry);
+        this.readSize = cookieSize(registry, tags, "read");
+        this.writeSize = cookieSize(registry, tags, "write");
+        this.written = cookies(registry, tags, "written");
+        this.cleared = cookies(registry, tags, "cleared");
+        this.tooBig = cookies(registry, tags, "too_big");
+        this.dropped = Counter.builder("javalin.session.attributes.dropped")
+                .description("Number of attributes dropped to fit the session into the cookie")
+                .tags(tags)
+                .register(registry);
+    }
+
+    @Override
+    public void onVerified(int cookieLength, long nanos) {
+        verified.record(nanos, TimeUnit.NANOSECONDS);
+        readSize.record(cookieLength);
+    }
+
+    @Override
+    public void onRejected(InvalidSessionException exception, long nanos) {
+        rejected.get(exception.reason()).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onWritten(int cookieLength, long nanos) {
+        signing.record(nanos, TimeUnit.NANOSECONDS);
+        writeSize.record(cookieLength);
+        written.increment();
+    }
+
+    @Override
+    public void onTooBig(int cookieLength) {
+        tooBig.increment();
+    }
+
+    @Override
+    public void onAttributesDropped(List<String> names) {
+        dropped.increment(names.size());
+    }
+
+    @Override
+    public void onCleared() {
+        cleared.increment();
+    }
+
+    private static Timer verificationTimer(MeterRegistry registry, Iterable<Tag> tags, String outcome) {
+        return Timer.builder("javalin.session.verification")
+                .description("Time spent reading, verifying and decoding the session cookie")
+                .tags(tags)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static DistributionSummary cookieSize(MeterRegistry registry, Iterable<Tag> tags, String operation) {
+        return DistributionSummary.builder("javalin.session.cookie.size")
+                .description("Size of the session cookie")
+                .baseUnit("bytes")
+                .tags(tags)
+                .tag("operation", operation)
+                .register(registry);
+    }
+
+    private static Counter cookies(MeterRegistry registry, Iterable<Tag> tags, String action) {
+        return Counter.builder("javalin.session.cookies")
+                .description("Number of session cookies, that have been written or removed")
+                .tags(tags)
+                .tag("action", action)
+                .register(registry);
+    }
+}
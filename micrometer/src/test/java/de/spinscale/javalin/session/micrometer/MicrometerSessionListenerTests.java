@@ -0,0 +1,65 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session.micrometer;
+
+import de.spinscale.javalin.session.InvalidSessionException;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MicrometerSessionListenerTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MicrometerSessionListener listener = new MicrometerSessionListener(registry, Tags.of("app", "test"));
+
+    @Test
+    void testVerification() {
+        listener.onVerified(100, 2_000);
+        listener.onVerified(300, 4_000);
+        listener.onRejected(new InvalidSessionException(InvalidSessionException.Reason.SIGNATURE, "tampered"), 1_000);
+        listener.onRejected(new InvalidSessionException("malformed"), 1_000);
+
+        assertThat(registry.get("javalin.session.verification").tag("outcome", "verified").timer().count()).isEqualTo(2);
+        assertThat(registry.get("javalin.session.verification").tag("outcome", "verified").timer().totalTime(TimeUnit.NANOSECONDS)).isEqualTo(6_000);
+        assertThat(registry.get("javalin.session.verification").tag("outcome", "signature").timer().count()).isEqualTo(1);
+        assertThat(registry.get("javalin.session.verification").tag("outcome", "malformed").timer().count()).isEqualTo(1);
+        assertThat(registry.get("javalin.session.verification").tag("outcome", "expired").timer().count()).isEqualTo(0);
+        assertThat(registry.get("javalin.session.cookie.size").tag("operation", "read").summary().totalAmount()).isEqualTo(400);
+    }
+
+    @Test
+    void testWrites() {
+        listener.onWritten(200, 5_000);
+        listener.onTooBig(5_000);
+        listener.onAttributesDropped(Arrays.asList("a", "b"));
+        listener.onCleared();
+        listener.onCleared();
+
+        assertThat(registry.get("javalin.session.signing").tag("app", "test").timer().count()).isEqualTo(1);
+        assertThat(registry.get("javalin.session.cookie.size").tag("operation", "write").summary().max()).isEqualTo(200);
+        assertThat(registry.get("javalin.session.cookies").tag("action", "written").counter().count()).isEqualTo(1);
+        assertThat(registry.get("javalin.session.cookies").tag("action", "too_big").counter().count()).isEqualTo(1);
+        assertThat(registry.get("javalin.session.cookies").tag("action", "cleared").counter().count()).isEqualTo(2);
+        assertThat(registry.get("javalin.session.attributes.dropped").counter().count()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.javalin.http.Context;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lightweight contexts and test data for the benchmarks
+ *
+ * The request and response are backed by plain maps instead of a servlet container, so that the benchmarks measure
+ * the session handlers and not Jetty.
+ */
+final class BenchmarkContexts {
+
+    static final String ATTRIBUTE_PREFIX = "session_";
+
+    private BenchmarkContexts() {}
+
+    /**
+     * @param algorithm     One of HS256, HS384 or HS512, the key is sized accordingly
+     */
+    static SecretKey key(String algorithm) {
+        final int bits = Integer.parseInt(algorithm.substring(2));
+        final byte[] secret = new byte[bits / 8];
+        Arrays.fill(secret, (byte) 42);
+        return new SecretKeySpec(secret, "Hmac" + algorithm.replace("HS", "SHA"));
+    }
+
+    /**
+     * @param format        One of jwt, binary or encrypted
+     */
+    static SessionCodec codec(String format, SecretKey key) {
+        switch (format) {
+            case "binary":
+                return new BinarySessionCodec(key, -1);
+            case "encrypted":
+                return new EncryptedSessionCodec(KeyRing.of(key));
+            default:
+                return new JwtSessionCodec(key, -1);
+        }
+    }
+
+    /**
+     * @return attributeCount string attributes, whose serialized size is roughly payloadSize bytes
+     */
+    static Map<String, Object> attributes(int attributeCount, int payloadSize) {
+        final int valueLength = Math.max(1, payloadSize / attributeCount - 16);
+        final char[] value = new char[valueLength];
+        Arrays.fill(value, 'x');
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.put(ATTRIBUTE_PREFIX + i, new String(value));
+        }
+        return attributes;
+    }
+
+    /**
+     * @return a cookie value with one character changed, so that its signature does not match anymore
+     */
+    static String tamper(String value) {
+        final int index = value.length() / 2;
+        final char replacement = value.charAt(index) == 'A' ? 'B' : 'A';
+        return value.substring(0, index) + replacement + value.substring(index + 1);
+    }
+
+    /**
+     * @param cookies       The cookies sent with the request
+     * @return a context for a GET request to <code>/</code>, discarding everything written to the response
+     */
+    static Context context(Cookie ... cookies) {
+        final Map<String, Object> attributes = new HashMap<>();
+        final Cookie[] requestCookies = cookies.length == 0 ? null : cookies;
+        final HttpServletRequest request = proxy(HttpServletRequest.class, (method, args) -> {
+            switch (method) {
+                case "getAttribute":
+                    return attributes.get((String) args[0]);
+                case "setAttribute":
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                case "removeAttribute":
+                    attributes.remove((String) args[0]);
+                    return null;
+                case "getAttributeNames":
+                    return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+                case "getCookies":
+                    return requestCookies;
+                case "getMethod":
+                    return "GET";
+                case "getRequestURI":
+                    return "/";
+                default:
+                    return null;
+            }
+        });
+        final HttpServletResponse response = proxy(HttpServletResponse.class, (method, args) -> null);
+        return new Context(request, response, Collections.emptyMap());
+    }
+
+    @FunctionalInterface
+    private interface Invocation {
+        Object invoke(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Invocation invocation) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            final Object result = invocation.invoke(method.getName(), args);
+            if (result == null && method.getReturnType() == boolean.class) {
+                return false;
+            } else if (result == null && method.getReturnType() == int.class) {
+                return 0;
+            } else if (result == null && method.getReturnType() == long.class) {
+                return 0L;
+            }
+            return result;
+        });
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.javalin.http.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import javax.servlet.http.Cookie;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifying and decoding the session cookie before a request
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ReadHandlerBenchmark {
+
+    @Param({ "HS256", "HS384", "HS512" })
+    public String algorithm;
+
+    @Param({ "16", "256", "1024", "2800" })
+    public int payloadSize;
+
+    @Param({ "1", "8", "32" })
+    public int attributeCount;
+
+    @Param({ "valid", "tampered", "missing" })
+    public String cookie;
+
+    @Param({ "jwt", "binary", "encrypted" })
+    public String format;
+
+    private CookieSessionStoreReadHandler handler;
+    private Context ctx;
+
+    @Setup
+    public void setup() {
+        final SecretKey key = BenchmarkContexts.key(algorithm);
+        final SessionCodec codec = BenchmarkContexts.codec(format, key);
+        final SessionCookie sessionCookie = new SessionCookie(CookieSessionStorePlugin.COOKIE_NAME, 1);
+        handler = new CookieSessionStoreReadHandler(new SessionSettings(codec), sessionCookie);
+
+        final String value = codec.encode(BenchmarkContexts.attributes(attributeCount, payloadSize));
+        if (value.length() > sessionCookie.maxLength()) {
+            throw new IllegalStateException("cookie of " + value.length() + " bytes exceeds the cookie size limit");
+        }
+        switch (cookie) {
+            case "valid":
+                ctx = BenchmarkContexts.context(new Cookie(CookieSessionStorePlugin.COOKIE_NAME, value));
+                break;
+            case "tampered":
+                ctx = BenchmarkContexts.context(new Cookie(CookieSessionStorePlugin.COOKIE_NAME, BenchmarkContexts.tamper(value)));
+                break;
+            default:
+                ctx = BenchmarkContexts.context();
+        }
+    }
+
+    @Benchmark
+    public Context read() throws Exception {
+        handler.handle(ctx);
+        return ctx;
+    }
+}
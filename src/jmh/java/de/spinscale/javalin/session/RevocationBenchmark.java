@@ -0,0 +1,79 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking the id of a verified session against the revoked ones
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class RevocationBenchmark {
+
+    @Param({ "0", "10000", "1000000" })
+    public int revokedSessions;
+
+    @Param({ "valid", "revoked" })
+    public String session;
+
+    private RevocationList revocationList;
+    private String sessionId;
+
+    @Setup
+    public void setup() {
+        revocationList = new RevocationList(Math.max(1, revokedSessions), Duration.ofHours(1));
+        for (int i = 0; i < revokedSessions; i++) {
+            revocationList.revoke(randomId());
+        }
+        sessionId = randomId();
+        if ("revoked".equals(session)) {
+            revocationList.revoke(sessionId);
+        }
+    }
+
+    @Benchmark
+    public boolean isRevoked() {
+        return revocationList.isRevoked(sessionId);
+    }
+
+    private static String randomId() {
+        final byte[] bytes = new byte[16];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.javalin.Javalin;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of the plugin end to end, by running the same workloads against an embedded Javalin with and
+ * without the plugin, and reports throughput and latency percentiles as one JSON object per line
+ *
+ * Workloads:
+ * <ul>
+ *     <li>read-only: a valid cookie is sent and read, the response does not set a cookie</li>
+ *     <li>read-write: a valid cookie is sent and an attribute changes, so the cookie is signed and written again</li>
+ *     <li>oversized: an attribute too big for the cookie is set, so the session is dropped</li>
+ *     <li>tampered: a cookie with a broken signature is sent and rejected</li>
+ * </ul>
+ *
+ * Options: <code>--threads N</code>, <code>--warmup SECONDS</code>, <code>--duration SECONDS</code>,
+ * <code>--workloads read-only,tampered</code> and <code>--output FILE</code>.
+ */
+public final class LoadTest {
+
+    private static final String ATTRIBUTE_PREFIX = "session_";
+
+    private LoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = options(args);
+        final int threads = Integer.parseInt(options.getOrDefault("threads", "32"));
+        final Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "5")));
+        final Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "10")));
+        final List<String> workloads = Arrays.asList(options.getOrDefault("workloads", "read-only,read-write,oversized,tampered").split(","));
+
+        final SecretKey key = new SecretKeySpec(new byte[32], "HmacSHA256");
+        final String cookie = CookieSessionStorePlugin.COOKIE_NAME + "=" + new JwtSessionCodec(key, -1).encode(attributes());
+        final String tamperedCookie = tamper(cookie);
+
+        final List<String> results = new ArrayList<>();
+        for (boolean withPlugin : new boolean[] { false, true }) {
+            final Javalin javalin = app(withPlugin ? new CookieSessionStorePlugin(key, name -> name.startsWith(ATTRIBUTE_PREFIX)) : null);
+            final OkHttpClient client = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(threads, 1, TimeUnit.MINUTES))
+                    .build();
+            try {
+                final String host = "http://localhost:" + javalin.port();
+                for (String workload : workloads) {
+                    final Request request;
+                    switch (workload) {
+                        case "read-only":
+                            request = new Request.Builder().url(host + "/read").header("Cookie", cookie).build();
+                            break;
+                        case "read-write":
+                            request = new Request.Builder().url(host + "/write").header("Cookie", cookie).build();
+                            break;
+                        case "oversized":
+                            request = new Request.Builder().url(host + "/oversized").header("Cookie", cookie).build();
+                            break;
+                        case "tampered":
+                            request = new Request.Builder().url(host + "/read").header("Cookie", tamperedCookie).build();
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown workload [" + workload + "]");
+                    }
+                    final String result = run(client, request, threads, warmup, duration)
+                            .toJson(withPlugin ? "plugin" : "baseline", workload, threads);
+                    System.out.println(result);
+                    results.add(result);
+                }
+            } finally {
+                javalin.stop();
+                client.dispatcher().executorService().shutdown();
+                client.connectionPool().evictAll();
+            }
+        }
+
+        if (options.containsKey("output")) {
+            final Path output = Paths.get(options.get("output"));
+            if (output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            Files.write(output, results, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @param plugin    The plugin to register or null for the baseline
+     */
+    private static Javalin app(CookieSessionStorePlugin plugin) {
+        final Javalin javalin = Javalin.create(config -> {
+            config.showJavalinBanner = false;
+            if (plugin != null) {
+                config.registerPlugin(plugin);
+            }
+        });
+        final String oversized = repeat('x', 8192);
+        javalin.get("/read", ctx -> ctx.result(String.valueOf(ctx.<Object>attribute(ATTRIBUTE_PREFIX + "user"))));
+        javalin.get("/write", ctx -> {
+            ctx.attribute(ATTRIBUTE_PREFIX + "counter", System.nanoTime());
+            ctx.result("OK");
+        });
+        javalin.get("/oversized", ctx -> {
+            ctx.attribute(ATTRIBUTE_PREFIX + "blob", oversized);
+            ctx.result("OK");
+        });
+        return javalin.start(0);
+    }
+
+    private static Result run(OkHttpClient client, Request request, int threads, Duration warmup, Duration duration) throws Exception {
+        final long measureFrom = System.nanoTime() + warmup.toNanos();
+        final long measureUntil = measureFrom + duration.toNanos();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Recorder>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    final Recorder recorder = new Recorder();
+                    long now;
+                    while ((now = System.nanoTime()) < measureUntil) {
+                        boolean success;
+                        try (Response response = client.newCall(request).execute()) {
+                            response.body().bytes();
+                            success = response.code() < 500;
+                        } catch (IOException e) {
+                            success = false;
+                        }
+                        if (now >= measureFrom) {
+                            recorder.record(System.nanoTime() - now, success);
+                        }
+                    }
+                    return recorder;
+                }));
+            }
+            final Recorder total = new Recorder();
+            for (Future<Recorder> future : futures) {
+                total.add(future.get());
+            }
+            return new Result(total, duration);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Ten attributes of a typical session, roughly 500 bytes in total
+     */
+    private static Map<String, Object> attributes() {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put(ATTRIBUTE_PREFIX + "user", "alexander");
+        attributes.put(ATTRIBUTE_PREFIX + "email", "alexander@example.org");
+        attributes.put(ATTRIBUTE_PREFIX + "roles", "admin,editor,viewer");
+        attributes.put(ATTRIBUTE_PREFIX + "locale", "de_DE");
+        attributes.put(ATTRIBUTE_PREFIX + "csrf", "q8d7f6g5h4j3k2l1m0n9b8v7c6x5y4z3");
+        attributes.put(ATTRIBUTE_PREFIX + "cart", 3);
+        attributes.put(ATTRIBUTE_PREFIX + "theme", "dark");
+        attributes.put(ATTRIBUTE_PREFIX + "tenant", "tenant-4711");
+        attributes.put(ATTRIBUTE_PREFIX + "last_page", "/products/categories/outdoor/tents?page=3&sort=price");
+        attributes.put(ATTRIBUTE_PREFIX + "counter", 1L);
+        return attributes;
+    }
+
+    private static String tamper(String cookie) {
+        final int index = cookie.length() - 10;
+        final char replacement = cookie.charAt(index) == 'A' ? 'B' : 'A';
+        return cookie.substring(0, index) + replacement + cookie.substring(index + 1);
+    }
+
+    private static String repeat(char c, int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static Map<String, String> options(String[] args) {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("expected --option value, got [" + args[i] + "]");
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * Collects the latencies of a single client thread
+     */
+    private static final class Recorder {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        private void record(long nanos, boolean success) {
+            if (!success) {
+                errors++;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+
+        private void add(Recorder other) {
+            if (count + other.count > latencies.length) {
+                latencies = Arrays.copyOf(latencies, count + other.count);
+            }
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            errors += other.errors;
+        }
+    }
+
+    private static final class Result {
+        private final long[] latencies;
+        private final long errors;
+        private final Duration duration;
+
+        private Result(Recorder recorder, Duration duration) {
+            this.latencies = Arrays.copyOf(recorder.latencies, recorder.count);
+            Arrays.sort(latencies);
+            this.errors = recorder.errors;
+            this.duration = duration;
+        }
+
+        private String toJson(String variant, String workload, int threads) {
+            final double throughput = latencies.length * 1000.0 / duration.toMillis();
+            return String.format(Locale.ROOT, "{\"variant\":\"%s\",\"workload\":\"%s\",\"threads\":%d,\"requests\":%d,"
+                            + "\"errors\":%d,\"throughput\":%.1f,\"p50_us\":%.1f,\"p99_us\":%.1f,\"p999_us\":%.1f}",
+                    variant, workload, threads, latencies.length, errors, throughput,
+                    percentile(0.5), percentile(0.99), percentile(0.999));
+        }
+
+        private double percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            final int index = (int) Math.ceil(percentile * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1000.0;
+        }
+    }
+}
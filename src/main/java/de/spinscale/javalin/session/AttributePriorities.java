@@ -0,0 +1,77 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Decides which attributes may be dropped, when a session does not fit into its cookie
+ *
+ * Only attributes matching a configured priority may be dropped, those with the lowest priority first. Attributes
+ * with the same priority are dropped in reverse order of insertion, reserved claims are never dropped.
+ */
+final class AttributePriorities {
+
+    private final List<Predicate<String>> filters = new ArrayList<>();
+    private final List<Integer> priorities = new ArrayList<>();
+
+    /**
+     * @param attributes    Matches the names of the attributes, the first matching filter decides the priority
+     * @param priority      Attributes with a lower priority are dropped first
+     */
+    void add(Predicate<String> attributes, int priority) {
+        filters.add(attributes);
+        priorities.add(priority);
+    }
+
+    /**
+     * @return The names of the attributes that may be dropped, in the order they should be dropped
+     */
+    List<String> dropOrder(Map<String, Object> attributes) {
+        final List<Map.Entry<String, Integer>> droppable = new ArrayList<>();
+        for (String name : attributes.keySet()) {
+            final Integer priority = priority(name);
+            if (priority != null) {
+                droppable.add(0, new AbstractMap.SimpleImmutableEntry<>(name, priority));
+            }
+        }
+        // stable sort, so that the reverse insertion order is kept for equal priorities
+        droppable.sort(Map.Entry.comparingByValue());
+        final List<String> order = new ArrayList<>(droppable.size());
+        for (Map.Entry<String, Integer> entry : droppable) {
+            order.add(entry.getKey());
+        }
+        return order;
+    }
+
+    private Integer priority(String name) {
+        if (ReservedClaims.isReserved(name)) {
+            return null;
+        }
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i).test(name)) {
+                return priorities.get(i);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.util.Arrays;
+
+/**
+ * Unpadded base64url encoding and decoding between byte arrays and strings, without intermediate copies
+ *
+ * The JDK encoder always returns new arrays or strings, which is what the session hot path tries to avoid.
+ */
+final class Base64Url {
+
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Url() {}
+
+    static int encodedLength(int length) {
+        return (length / 3) * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+    }
+
+    /**
+     * @return The maximum number of bytes a value of this length decodes to
+     */
+    static int decodedLength(int length) {
+        return (length / 4) * 3 + Math.max(0, length % 4 - 1);
+    }
+
+    /**
+     * @param c     A character
+     * @return true if the character is part of the base64url alphabet
+     */
+    static boolean isValid(char c) {
+        return c < 128 && VALUES[c] >= 0;
+    }
+
+    /**
+     * Encode the source into the destination
+     *
+     * @return The offset in the destination after the last written byte
+     */
+    static int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        int d = dstOffset;
+        final int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            final int bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF);
+            dst[d++] = ALPHABET[bits >>> 18];
+            dst[d++] = ALPHABET[(bits >>> 12) & 0x3F];
+            dst[d++] = ALPHABET[(bits >>> 6) & 0x3F];
+            dst[d++] = ALPHABET[bits & 0x3F];
+        }
+        final int remaining = end - i;
+        if (remaining == 1) {
+            final int bits = (src[i] & 0xFF) << 16;
+            dst[d++] = ALPHABET[bits >>> 18];
+            dst[d++] = ALPHABET[(bits >>> 12) & 0x3F];
+        } else if (remaining == 2) {
+            final int bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8;
+            dst[d++] = ALPHABET[bits >>> 18];
+            dst[d++] = ALPHABET[(bits >>> 12) & 0x3F];
+            dst[d++] = ALPHABET[(bits >>> 6) & 0x3F];
+        }
+        return d;
+    }
+
+    /**
+     * Decode a part of the source string into the destination
+     *
+     * @return The number of bytes written or -1 if the source is not valid unpadded base64url
+     */
+    static int decode(CharSequence src, int start, int end, byte[] dst, int dstOffset) {
+        if ((end - start) % 4 == 1) {
+            return -1;
+        }
+        int d = dstOffset;
+        int bits = 0;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            final char c = src.charAt(i);
+            final int value = c < 128 ? VALUES[c] : -1;
+            if (value < 0) {
+                return -1;
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                dst[d++] = (byte) (bits >> 16);
+                dst[d++] = (byte) (bits >> 8);
+                dst[d++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 2) {
+            dst[d++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            dst[d++] = (byte) (bits >> 10);
+            dst[d++] = (byte) (bits >> 2);
+        }
+        return d - dstOffset;
+    }
+}
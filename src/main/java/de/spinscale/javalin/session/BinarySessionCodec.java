@@ -0,0 +1,411 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import javax.crypto.SecretKey;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact codec, that stores the attributes in a type tagged binary format instead of JSON
+ *
+ * The cookie value is the base64url encoded concatenation of a format byte, the serialized attributes and the HMAC
+ * of both. There is no JWT header, so the value is considerably smaller than a JWT for the same attributes.
+ * Supported values are strings, numbers, booleans, byte arrays, lists and maps of those, as well as null.
+ * Integers and longs keep their type when decoded, floats are decoded as doubles.
+ *
+ * Serializing, signing and base64url encoding all happen in per thread scratch buffers via an {@link HmacEngine}.
+ *
+ * When signed with a key of a {@link KeyRing} that has a kid, a second format byte is used and the kid follows it as
+ * a length prefixed string, so that the key to verify with can be looked up directly.
+ *
+ * Values without a dot are decoded in this format, all others are considered a JWT and decoded by the JWT codec, so
+ * that sessions written before switching the format can still be read.
+ */
+class BinarySessionCodec implements SessionCodec {
+
+    private static final byte FORMAT_PLAIN = (byte) 0xB1;
+    private static final byte FORMAT_DEFLATE = (byte) 0xB2;
+    private static final byte FORMAT_PLAIN_WITH_KID = (byte) 0xB3;
+    private static final byte FORMAT_DEFLATE_WITH_KID = (byte) 0xB4;
+    // the upper six bits of the format bytes, so every value starts with one of these base64url characters
+    private static final char FORMAT_PREFIX = 's';
+    private static final char FORMAT_WITH_KID_DEFLATE_PREFIX = 't';
+    private static final int MIN_LENGTH = Base64Url.encodedLength(1 + 32);
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_FALSE = 1;
+    private static final byte TYPE_TRUE = 2;
+    private static final byte TYPE_INT = 3;
+    private static final byte TYPE_LONG = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_STRING = 6;
+    private static final byte TYPE_BYTES = 7;
+    private static final byte TYPE_LIST = 8;
+    private static final byte TYPE_MAP = 9;
+
+    private final KeyRing keyRing;
+    private final int compressionThreshold;
+    private final SessionCodec jwtCodec;
+
+    /**
+     * @param compressionThreshold  The minimum size of the serialized attributes in bytes to compress them, -1 to disable compression
+     */
+    BinarySessionCodec(SecretKey key, int compressionThreshold) {
+        this(KeyRing.of(key), compressionThreshold);
+    }
+
+    /**
+     * @param compressionThreshold  The minimum size of the serialized attributes in bytes to compress them, -1 to disable compression
+     */
+    BinarySessionCodec(KeyRing keyRing, int compressionThreshold) {
+        this.keyRing = keyRing;
+        this.compressionThreshold = compressionThreshold;
+        this.jwtCodec = new JwtSessionCodec(keyRing, compressionThreshold);
+    }
+
+    @Override
+    public String encode(Map<String, Object> attributes) {
+        final KeyRing.Entry key = keyRing.active();
+        final HmacEngine engine = key.engine;
+        final boolean withKid = key.kidBytes.length > 0;
+        final Output out = new Output(Scratch.get());
+        out.write(withKid ? FORMAT_PLAIN_WITH_KID : FORMAT_PLAIN);
+        if (withKid) {
+            out.write(key.kidBytes.length);
+            out.write(key.kidBytes, 0, key.kidBytes.length);
+        }
+        final int headerLength = out.position;
+        writeAttributes(out, attributes);
+        if (compressionThreshold >= 0 && out.position - headerLength >= compressionThreshold) {
+            final byte[] compressed = Deflate.compress(out.buffer, headerLength, out.position - headerLength);
+            out.buffer[0] = withKid ? FORMAT_DEFLATE_WITH_KID : FORMAT_DEFLATE;
+            out.position = headerLength;
+            out.write(compressed, 0, compressed.length);
+        }
+
+        // layout: format, optional kid, attributes, signature
+        final int dataLength = out.position;
+        out.ensure(engine.macLength());
+        final int tokenLength = engine.sign(out.buffer, 0, dataLength, out.buffer, dataLength);
+        final byte[] encoded = Scratch.get().first(Base64Url.encodedLength(tokenLength));
+        final int length = Base64Url.encode(out.buffer, 0, tokenLength, encoded, 0);
+        return new String(encoded, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public Object keyGeneration() {
+        return keyRing.entries();
+    }
+
+    @Override
+    public int minimumLength(Map<String, Object> attributes, int maxLength) {
+        final int payload = compressionThreshold < 0 ? SessionSize.minimumSize(attributes, maxLength)
+                : Deflate.minimumCompressedSize(SessionSize.minimumSize(attributes, Deflate.maximumUncompressedSize(maxLength)));
+        return Base64Url.encodedLength(1 + payload + keyRing.active().engine.macLength());
+    }
+
+    @Override
+    public Map<String, Object> decode(String value) throws InvalidSessionException {
+        if (value.indexOf('.') >= 0) {
+            return jwtCodec.decode(value);
+        }
+
+        // cheap checks before any decoding, to reject junk cookies quickly
+        if (value.length() < MIN_LENGTH) {
+            throw malformed("session cookie is too short");
+        }
+        if (value.charAt(0) != FORMAT_PREFIX && value.charAt(0) != FORMAT_WITH_KID_DEFLATE_PREFIX) {
+            throw malformed("unknown session cookie format");
+        }
+
+        final Scratch scratch = Scratch.get();
+        final byte[] token = scratch.first(Base64Url.decodedLength(value.length()));
+        final int tokenLength = Base64Url.decode(value, 0, value.length(), token, 0);
+        if (tokenLength < 0) {
+            throw malformed("session cookie is not base64url encoded");
+        }
+
+        final byte format = token[0];
+        final boolean withKid = format == FORMAT_PLAIN_WITH_KID || format == FORMAT_DEFLATE_WITH_KID;
+        if (!withKid && format != FORMAT_PLAIN && format != FORMAT_DEFLATE) {
+            throw malformed("unknown session cookie format " + format);
+        }
+        final int headerLength = withKid ? 2 + (tokenLength > 1 ? token[1] & 0xFF : 0) : 1;
+        final KeyRing.Entry key = withKid ? keyFor(token, tokenLength) : keyRing.get("");
+        if (key == null) {
+            throw new InvalidSessionException(InvalidSessionException.Reason.SIGNATURE, "session cookie is signed with unknown key");
+        }
+
+        final HmacEngine engine = key.engine;
+        final int dataLength = tokenLength - engine.macLength();
+        if (dataLength < headerLength) {
+            throw new InvalidSessionException("session cookie is too short");
+        }
+        if (!engine.verify(token, 0, dataLength, token, dataLength, engine.macLength())) {
+            throw InvalidSessionException.withoutStackTrace(InvalidSessionException.Reason.SIGNATURE, "session cookie signature does not match");
+        }
+
+        final ByteBuffer buffer;
+        if (format == FORMAT_PLAIN || format == FORMAT_PLAIN_WITH_KID) {
+            buffer = scratch.firstBuffer(headerLength, dataLength - headerLength);
+        } else {
+            buffer = ByteBuffer.wrap(Deflate.inflate(token, headerLength, dataLength - headerLength));
+        }
+
+        return readAttributes(buffer);
+    }
+
+    /**
+     * Serialize the attributes in the type tagged binary format
+     */
+    static void writeAttributes(Output out, Map<String, Object> attributes) {
+        writeVarInt(out, attributes.size());
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    /**
+     * @param buffer    The serialized attributes and nothing else
+     */
+    static Map<String, Object> readAttributes(ByteBuffer buffer) throws InvalidSessionException {
+        try {
+            final Map<String, Object> attributes = readMap(buffer);
+            if (buffer.hasRemaining()) {
+                throw new InvalidSessionException("unexpected trailing data in session cookie");
+            }
+            return attributes;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new InvalidSessionException("malformed session cookie", e);
+        }
+    }
+
+    /**
+     * @return The key referenced by the kid following the format byte, null if there is no such key
+     */
+    private KeyRing.Entry keyFor(byte[] token, int tokenLength) {
+        if (tokenLength < 2 || tokenLength < 2 + (token[1] & 0xFF)) {
+            throw new InvalidSessionException("session cookie is too short");
+        }
+        final int kidLength = token[1] & 0xFF;
+        // the active key is the common case and found without creating a string
+        final KeyRing.Entry active = keyRing.active();
+        if (active.kidBytes.length == kidLength && regionEquals(token, 2, active.kidBytes)) {
+            return active;
+        }
+        return keyRing.get(new String(token, 2, kidLength, StandardCharsets.UTF_8));
+    }
+
+    private static InvalidSessionException malformed(String message) {
+        return InvalidSessionException.withoutStackTrace(InvalidSessionException.Reason.MALFORMED, message);
+    }
+
+    private static boolean regionEquals(byte[] buffer, int offset, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeValue(Output out, Object value) {
+        if (value == null) {
+            out.write(TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.write(TYPE_INT);
+            writeVarLong(out, zigZag(((Number) value).intValue()));
+        } else if (value instanceof Long) {
+            out.write(TYPE_LONG);
+            writeVarLong(out, zigZag((Long) value));
+        } else if (value instanceof Double || value instanceof Float) {
+            out.write(TYPE_DOUBLE);
+            final long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (bits >>> shift));
+            }
+        } else if (value instanceof CharSequence) {
+            out.write(TYPE_STRING);
+            writeString(out, value.toString());
+        } else if (value instanceof byte[]) {
+            out.write(TYPE_BYTES);
+            final byte[] bytes = (byte[]) value;
+            writeVarInt(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if (value instanceof List) {
+            out.write(TYPE_LIST);
+            final List<?> list = (List<?>) value;
+            writeVarInt(out, list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            out.write(TYPE_MAP);
+            final Map<?, ?> map = (Map<?, ?>) value;
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(out, String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("cannot store value of type " + value.getClass().getName() + " in the session");
+        }
+    }
+
+    private static Object readValue(ByteBuffer buffer) {
+        final byte type = buffer.get();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_FALSE:
+                return Boolean.FALSE;
+            case TYPE_TRUE:
+                return Boolean.TRUE;
+            case TYPE_INT:
+                return (int) unZigZag(readVarLong(buffer));
+            case TYPE_LONG:
+                return unZigZag(readVarLong(buffer));
+            case TYPE_DOUBLE:
+                return buffer.getDouble();
+            case TYPE_STRING:
+                return readString(buffer);
+            case TYPE_BYTES:
+                final byte[] bytes = new byte[readLength(buffer)];
+                buffer.get(bytes);
+                return bytes;
+            case TYPE_LIST:
+                final int size = readLength(buffer);
+                final List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(buffer));
+                }
+                return list;
+            case TYPE_MAP:
+                return readMap(buffer);
+            default:
+                throw new IllegalArgumentException("unknown type " + type);
+        }
+    }
+
+    private static Map<String, Object> readMap(ByteBuffer buffer) {
+        final int size = readLength(buffer);
+        final Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            final String key = readString(buffer);
+            map.put(key, readValue(buffer));
+        }
+        return map;
+    }
+
+    private static void writeString(Output out, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = readLength(buffer);
+        final String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static void writeVarInt(Output out, int value) {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(Output out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("variable length number is too long");
+    }
+
+    /**
+     * @return A length, which can never be more than the remaining bytes as every element takes at least one byte
+     */
+    private static int readLength(ByteBuffer buffer) {
+        final long length = readVarLong(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * A growable output on top of the second scratch buffer, so that serializing does not allocate
+     */
+    static final class Output {
+
+        private final Scratch scratch;
+        byte[] buffer;
+        int position;
+
+        Output(Scratch scratch) {
+            this.scratch = scratch;
+            this.buffer = scratch.second(256);
+        }
+
+        void ensure(int additional) {
+            if (position + additional > buffer.length) {
+                buffer = scratch.growSecond(position + additional);
+            }
+        }
+
+        void write(int b) {
+            ensure(1);
+            buffer[position++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
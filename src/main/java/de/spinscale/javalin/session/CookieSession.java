@@ -0,0 +1,345 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.javalin.http.Context;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The session of a single request, stored as a request attribute by the read handler
+ *
+ * In the default eager mode the cookie is decoded before any route runs, and its attributes are copied into the
+ * request attributes. This object is then a view on those request attributes.
+ *
+ * In lazy mode the raw cookie is kept and only verified and decoded when the session is accessed for the first time,
+ * so requests that never access the session do not pay for it. Attributes are only available via this object.
+ * If the cookie turns out to be invalid, the session is empty and the cookie is removed after the request.
+ *
+ * Attributes moved to a {@link SessionStore} are loaded in eager mode right away. In lazy mode they are only loaded
+ * when an attribute not stored in the cookie is requested, or an attribute is removed.
+ *
+ * Attribute groups stored in their own cookies have their own sessions. In lazy mode this session passes access to
+ * attributes of a group on to the session of the group, so that only the cookies of accessed groups are decoded.
+ */
+public final class CookieSession {
+
+    static final String ATTRIBUTE = CookieSessionStorePlugin.INTERNAL_ATTRIBUTE_PREFIX + "session";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Verifies and decodes the raw cookie
+     */
+    @FunctionalInterface
+    interface Loader {
+        Map<String, Object> load(CookieSession session) throws InvalidSessionException;
+    }
+
+    private final Context ctx;
+    private final Loader loader;
+    private Map<String, Object> snapshot;
+    private Map<String, Object> attributes;
+    // epoch seconds of the last signing of the cookie and the start of the session, 0 if unknown
+    private long issuedAt;
+    private long authenticatedAt;
+    private String id;
+    // the id has been assigned during this request and is not stored in the cookie yet
+    private boolean newId;
+    private String spillReference;
+    private Loader spillLoader;
+    // sessions of attribute groups stored in their own cookies, only set on the session of the main cookie
+    private volatile List<Group> groups = Collections.emptyList();
+
+    private CookieSession(Context ctx, Loader loader, Map<String, Object> snapshot) {
+        this.ctx = ctx;
+        this.loader = loader;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @param ctx       The context of the current request
+     * @return The session of the current request, an empty one if the plugin did not read a cookie for this request
+     */
+    public static CookieSession get(Context ctx) {
+        CookieSession session = ctx.attribute(ATTRIBUTE);
+        if (session == null) {
+            session = lazy(s -> Collections.emptyMap());
+            ctx.attribute(ATTRIBUTE, session);
+        }
+        return session;
+    }
+
+    /**
+     * A session whose attributes have already been copied into the request attributes
+     */
+    static CookieSession eager(Context ctx, Map<String, Object> snapshot) {
+        return new CookieSession(ctx, null, snapshot);
+    }
+
+    /**
+     * A session that calls the loader on first access
+     */
+    static CookieSession lazy(Loader loader) {
+        return new CookieSession(null, loader, null);
+    }
+
+    /**
+     * @param name      The name of the attribute
+     * @return The value of the attribute or null if it does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name) {
+        if (ctx != null) {
+            return ctx.attribute(name);
+        }
+        final CookieSession group = groupFor(name);
+        if (group != null) {
+            return group.get(name);
+        }
+        return (T) lookup(name);
+    }
+
+    /**
+     * @param name      The name of the attribute
+     * @param value     The value to store in the session, null removes the attribute
+     */
+    public void set(String name, Object value) {
+        final CookieSession group = groupFor(name);
+        if (group != null) {
+            group.set(name, value);
+        } else if (ctx != null) {
+            ctx.attribute(name, value);
+        } else if (value == null) {
+            removeAttribute(name);
+        } else {
+            load().put(name, value);
+        }
+    }
+
+    /**
+     * @param key       The key of the attribute
+     * @return The value of the attribute or the default value of the key if it does not exist or cannot be converted
+     *          to the type of the key
+     */
+    public <T> T get(SessionKey<T> key) {
+        final Object value = get(key.name());
+        final T typed = value == null ? null : key.cast(value);
+        return typed == null ? key.defaultValue() : typed;
+    }
+
+    /**
+     * @param key       The key of the attribute
+     * @param value     The value to store in the session, null removes the attribute
+     */
+    public <T> void set(SessionKey<T> key, T value) {
+        set(key.name(), value);
+    }
+
+    /**
+     * @param name      The name of the attribute to remove
+     */
+    public void remove(String name) {
+        set(name, null);
+    }
+
+    /**
+     * The id is only stored in the cookie if revocation is enabled, see
+     * {@link CookieSessionStorePlugin#withRevocation(RevocationChecker)}. A new random id is assigned to sessions
+     * without one, so that it can be recorded on login, to revoke the session later on. Assigning an id marks the
+     * session as modified, so that the id is stored even if nothing else changes.
+     *
+     * @return The id of the session, which stays the same for the whole lifetime of the session
+     */
+    public synchronized String id() {
+        if (ctx == null) {
+            load();
+        }
+        if (id == null) {
+            final byte[] bytes = new byte[16];
+            RANDOM.nextBytes(bytes);
+            id = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+            newId = true;
+        }
+        return id;
+    }
+
+    /**
+     * @return true if {@link #id()} has assigned a new id during this request
+     */
+    synchronized boolean hasNewId() {
+        return newId;
+    }
+
+    /**
+     * @return true if the cookie has been decoded, which is always the case in eager mode
+     */
+    public synchronized boolean isLoaded() {
+        return ctx != null || attributes != null;
+    }
+
+    boolean isLazy() {
+        return ctx == null;
+    }
+
+    /**
+     * @param filter    Matches the names of the attributes of the group
+     * @param session   The session of the cookie holding the group
+     */
+    synchronized void addGroup(Predicate<String> filter, CookieSession session) {
+        final List<Group> copy = new ArrayList<>(groups);
+        copy.add(new Group(filter, session));
+        groups = copy;
+    }
+
+    synchronized void issued(long issuedAt, long authenticatedAt, String id) {
+        this.issuedAt = issuedAt;
+        this.authenticatedAt = authenticatedAt;
+        this.id = id;
+    }
+
+    /**
+     * @param reference     The reference to the attributes moved to the store
+     * @param spillLoader   Loads the moved attributes, null if they have already been loaded
+     */
+    synchronized void spilled(String reference, Loader spillLoader) {
+        this.spillReference = reference;
+        this.spillLoader = spillLoader;
+    }
+
+    /**
+     * @return The reference to the attributes moved to the store, null if there are none
+     */
+    synchronized String spillReference() {
+        return spillReference;
+    }
+
+    /**
+     * @return true if the cookie references moved attributes, which have not been loaded yet
+     */
+    synchronized boolean hasUnloadedSpill() {
+        return spillLoader != null;
+    }
+
+    /**
+     * Load the moved attributes, attributes of the cookie or modified ones take precedence
+     */
+    synchronized void loadSpilled() {
+        if (spillLoader == null) {
+            return;
+        }
+        Map<String, Object> spilled;
+        try {
+            spilled = spillLoader.load(this);
+        } catch (InvalidSessionException e) {
+            spilled = Collections.emptyMap();
+        }
+        spillLoader = null;
+        final Map<String, Object> mergedSnapshot = new LinkedHashMap<>(spilled);
+        mergedSnapshot.putAll(snapshot);
+        snapshot = mergedSnapshot;
+        final Map<String, Object> mergedAttributes = SessionValues.deepCopy(spilled);
+        mergedAttributes.putAll(attributes);
+        attributes = mergedAttributes;
+    }
+
+    /**
+     * @return When the cookie has been signed in epoch seconds, 0 if unknown
+     */
+    synchronized long issuedAt() {
+        return issuedAt;
+    }
+
+    /**
+     * @return When the session has been started in epoch seconds, 0 if unknown
+     */
+    synchronized long authenticatedAt() {
+        return authenticatedAt;
+    }
+
+    /**
+     * @return The attributes that have been decoded from the cookie, null if the cookie was invalid
+     */
+    synchronized Map<String, Object> snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return The current attributes of a lazy session, decoding the cookie if that has not happened yet
+     */
+    synchronized Map<String, Object> attributes() {
+        return load();
+    }
+
+    private CookieSession groupFor(String name) {
+        final List<Group> groups = this.groups;
+        for (int i = 0; i < groups.size(); i++) {
+            if (groups.get(i).filter.test(name)) {
+                return groups.get(i).session;
+            }
+        }
+        return null;
+    }
+
+    private synchronized Object lookup(String name) {
+        final Object value = load().get(name);
+        if (value == null && spillLoader != null) {
+            loadSpilled();
+            return attributes.get(name);
+        }
+        return value;
+    }
+
+    private synchronized void removeAttribute(String name) {
+        // a moved attribute would otherwise come back when the moved attributes are loaded later on
+        load();
+        loadSpilled();
+        attributes.remove(name);
+    }
+
+    private synchronized Map<String, Object> load() {
+        if (attributes == null) {
+            try {
+                snapshot = loader.load(this);
+                attributes = SessionValues.deepCopy(snapshot);
+            } catch (InvalidSessionException e) {
+                // someone fiddled with the cookie, continue with an empty session that replaces the cookie
+                snapshot = null;
+                attributes = new LinkedHashMap<>();
+            }
+        }
+        return attributes;
+    }
+
+    private static final class Group {
+        private final Predicate<String> filter;
+        private final CookieSession session;
+
+        private Group(Predicate<String> filter, CookieSession session) {
+            this.filter = filter;
+            this.session = session;
+        }
+    }
+}
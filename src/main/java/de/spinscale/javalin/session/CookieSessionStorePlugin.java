@@ -19,9 +19,17 @@ package de.spinscale.javalin.session;
 
 import io.javalin.Javalin;
 import io.javalin.core.plugin.Plugin;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
 import org.jetbrains.annotations.NotNull;
 
 import javax.crypto.SecretKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
 
 /**
@@ -35,10 +43,34 @@ import java.util.function.Predicate;
 public class CookieSessionStorePlugin implements Plugin {
 
     static final String COOKIE_NAME = "SESSION_COOKIE";
+    // request attributes starting with this prefix are used by the plugin itself and never stored in the cookie
+    static final String INTERNAL_ATTRIBUTE_PREFIX = "de.spinscale.javalin.session.";
 
-    private final SecretKey key;
+    private final KeyRing keyRing;
     private final Predicate<String> attributeFilter;
     private final String cookieName;
+    private VerifiedSessionCache verifiedSessionCache;
+    private boolean lazy;
+    private int compressionThreshold = -1;
+    private int maxChunks = 1;
+    private int maxCookieSize = SessionCookie.MAX_COOKIE_SIZE;
+    private AttributePriorities attributePriorities;
+    private RevocationChecker revocationChecker;
+    private boolean binaryFormat;
+    private boolean encrypted;
+    private SessionCodec codec;
+    private SessionListener listener = SessionListener.NOOP;
+    private RejectedSessionCache rejectedSessionCache;
+    private RejectedSessionHandler rejectedSessionHandler;
+    private Duration idleTimeout;
+    private Duration absoluteTimeout;
+    private double refreshFraction = 0.5;
+    private SessionStore spillStore;
+    private Predicate<String> spillFilter;
+    // cookie names of attribute groups and the filters of their attributes, in the order they have been added
+    private final Map<String, Predicate<String>> attributeGroups = new LinkedHashMap<>();
+    private SessionSchema schema;
+    private final SessionScope scope = new SessionScope();
 
     /**
      * @param key               The secret key representing the secret to encrypt the cookie
@@ -57,14 +89,409 @@ public class CookieSessionStorePlugin implements Plugin {
      */
     public CookieSessionStorePlugin(String cookieName, final SecretKey key,
                                     Predicate<String> attributeFilter) {
+        this(cookieName, KeyRing.of(key), attributeFilter);
+    }
+
+    /**
+     * @param keyRing           The keys to sign new cookies and verify existing ones, which can be rotated at runtime
+     * @param attributeFilter   A filter applied against the request attributes to decide if an attribute should be serialized into the cookie
+     * @see #CookieSessionStorePlugin(String, KeyRing, Predicate)
+     */
+    public CookieSessionStorePlugin(KeyRing keyRing, Predicate<String> attributeFilter) {
+        this(COOKIE_NAME, keyRing, attributeFilter);
+    }
+
+    /**
+     * @param cookieName        The name of the cookie to be used
+     * @param keyRing           The keys to sign new cookies and verify existing ones, which can be rotated at runtime
+     * @param attributeFilter   A filter applied against the request attributes to decide if an attribute should be serialized into the cookie
+     */
+    public CookieSessionStorePlugin(String cookieName, KeyRing keyRing, Predicate<String> attributeFilter) {
         this.cookieName = cookieName;
-        this.key = key;
+        this.keyRing = keyRing;
         this.attributeFilter = attributeFilter;
     }
 
+    /**
+     * Skip the verification of cookies, that have already been verified before
+     *
+     * @param cache             The cache to store verified cookies in, keep a reference to read its statistics
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withVerifiedSessionCache(VerifiedSessionCache cache) {
+        this.verifiedSessionCache = cache;
+        return this;
+    }
+
+    /**
+     * Reject cookies, that have been rejected recently, without decoding or verifying them again
+     *
+     * @param cache             The cache to remember rejected cookies in
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withRejectedSessionCache(RejectedSessionCache cache) {
+        this.rejectedSessionCache = cache;
+        return this;
+    }
+
+    /**
+     * Get called for every rejected cookie with the context of the request, for example to rate limit offenders
+     *
+     * @param handler           The handler to call on the request thread
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withRejectedSessionHandler(RejectedSessionHandler handler) {
+        this.rejectedSessionHandler = handler;
+        return this;
+    }
+
+    /**
+     * Only verify and decode the cookie when the session is accessed via {@link CookieSession#get(io.javalin.http.Context)}.
+     * The attributes of the cookie are not copied into the request attributes in this mode.
+     * Requests that never access the session do not refresh its cookie, so they do not slide the idle timeout, see
+     * {@link #withIdleTimeout(Duration)}.
+     *
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withLazyDecoding() {
+        this.lazy = true;
+        return this;
+    }
+
+    /**
+     * Compress the session using DEFLATE, if its serialized size exceeds a threshold. Uncompressed cookies are still
+     * read, so this can be enabled without losing existing sessions.
+     *
+     * @param thresholdInBytes  The minimum size of the serialized attributes to compress them, small payloads do not gain from compression
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withCompression(int thresholdInBytes) {
+        if (thresholdInBytes < 0) {
+            throw new IllegalArgumentException("compression threshold must not be negative, got " + thresholdInBytes);
+        }
+        this.compressionThreshold = thresholdInBytes;
+        return this;
+    }
+
+    /**
+     * Store the session in a compact binary format instead of a JWT. Existing JWT cookies can still be read.
+     *
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withBinaryFormat() {
+        this.binaryFormat = true;
+        return this;
+    }
+
+    /**
+     * Encrypt and authenticate the session with AES-256-GCM instead of only signing it, so that its attributes are not
+     * visible to the client. The AES keys are derived from the keys of the key ring. Existing signed sessions are
+     * still read, so this can be enabled without losing existing sessions. Compression is not applied to encrypted
+     * sessions.
+     *
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withEncryption() {
+        this.encrypted = true;
+        return this;
+    }
+
+    /**
+     * Use a custom format for the session cookie. The configured keys and compression are not used in that case.
+     *
+     * @param codec             The codec to sign and serialize the session
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withCodec(SessionCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * Expire sessions, whose cookie has not been written for some time. Cookies of unchanged sessions are written
+     * again after half of the idle timeout by default, so active users keep their session.
+     * Note that enabling a timeout invalidates existing cookies, as they do not carry the required timestamps.
+     * In lazy mode only requests accessing the session refresh its cookie, see {@link #withLazyDecoding()}.
+     *
+     * @param idleTimeout       The maximum time between two writes of the cookie
+     * @return this plugin
+     * @see #withRefreshAfter(double)
+     */
+    public CookieSessionStorePlugin withIdleTimeout(Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * Expire sessions some time after they have been started, no matter how active they are
+     *
+     * @param absoluteTimeout   The maximum lifetime of a session
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withAbsoluteTimeout(Duration absoluteTimeout) {
+        this.absoluteTimeout = absoluteTimeout;
+        return this;
+    }
+
+    /**
+     * Configure when an unchanged session is written again to slide the idle timeout. A lower value keeps sessions
+     * alive more reliably, a higher value reduces the signing work and <code>Set-Cookie</code> headers.
+     *
+     * @param fractionOfIdleTimeout The age of the cookie as a fraction of the idle timeout, between 0 and 1
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withRefreshAfter(double fractionOfIdleTimeout) {
+        this.refreshFraction = fractionOfIdleTimeout;
+        return this;
+    }
+
+    /**
+     * Get notified about verified, rejected, written and removed cookies, for example to collect metrics
+     *
+     * @param listener          The listener to notify on the request thread
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withListener(SessionListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Only store the attributes of the keys of the schema, which also match the attribute filter. Their values are
+     * converted to the type of their key when the cookie is decoded, see {@link CookieSession#get(SessionKey)}.
+     * Only those attributes are looked up on each request, instead of filtering all request attributes.
+     *
+     * @param schema            The keys of all attributes stored in the session
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withSchema(SessionSchema schema) {
+        this.schema = schema;
+        return this;
+    }
+
+    /**
+     * Store the matching attributes in their own cookie, that is signed, written and with lazy decoding verified
+     * independently of the main cookie. This way an often changing attribute like a CSRF nonce does not require to
+     * sign and send rarely changing attributes again. An attribute matching several groups belongs to the first one.
+     *
+     * @param cookieName        The name of the cookie holding the group
+     * @param filter            Matches the names of the request attributes stored in that cookie
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withAttributeGroup(String cookieName, Predicate<String> filter) {
+        if (cookieName.equals(this.cookieName) || attributeGroups.containsKey(cookieName)) {
+            throw new IllegalArgumentException("cookie name [" + cookieName + "] is already in use");
+        }
+        attributeGroups.put(cookieName, filter);
+        return this;
+    }
+
+    /**
+     * Move attributes of sessions, that would not fit into the cookie otherwise, to a server side store. The cookie
+     * then only carries a reference to the stored attributes and the small attributes.
+     *
+     * @param store             The store for the moved attributes, like an {@link InMemorySessionStore}
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withSpillOver(SessionStore store) {
+        return withSpillOver(store, name -> false);
+    }
+
+    /**
+     * Move flagged attributes and attributes of sessions, that would not fit into the cookie otherwise, to a server
+     * side store. The cookie then only carries a reference to the stored attributes and the remaining attributes.
+     *
+     * @param store             The store for the moved attributes, like an {@link InMemorySessionStore}
+     * @param flagged           Returns true for the names of attributes that should never be stored in the cookie
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withSpillOver(SessionStore store, Predicate<String> flagged) {
+        this.spillStore = store;
+        this.spillFilter = flagged;
+        return this;
+    }
+
+    /**
+     * Split sessions bigger than a single cookie into several cookies named <code>cookieName.0</code>,
+     * <code>cookieName.1</code> and so on. Note that browsers limit the number and total size of cookies per domain.
+     *
+     * @param maxChunks         The maximum number of cookies a session may be split into
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withChunking(int maxChunks) {
+        if (maxChunks < 1) {
+            throw new IllegalArgumentException("maxChunks must be at least 1, got " + maxChunks);
+        }
+        this.maxChunks = maxChunks;
+        return this;
+    }
+
+    /**
+     * Change the maximum length of a single cookie, for example to leave room for other cookies
+     *
+     * @param bytes             The maximum length of the cookie including its name and attributes, defaults to 4096
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withMaxCookieSize(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("maxCookieSize must be positive, got " + bytes);
+        }
+        this.maxCookieSize = bytes;
+        return this;
+    }
+
+    /**
+     * Allow dropping matching attributes, if the session does not fit into the cookie otherwise. Attributes with the
+     * lowest priority are dropped first, attributes without a priority are never dropped. Dropped attributes are
+     * logged and reported via {@link SessionListener#onAttributesDropped(List)}.
+     *
+     * @param attributes        Matches the names of the attributes, the first configured match decides the priority
+     * @param priority          The priority of the attributes, lower ones are dropped first
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withAttributePriority(Predicate<String> attributes, int priority) {
+        if (attributePriorities == null) {
+            attributePriorities = new AttributePriorities();
+        }
+        attributePriorities.add(attributes, priority);
+        return this;
+    }
+
+    /**
+     * Reject cookies of revoked sessions, to log out a user everywhere. Written cookies carry the id of their session,
+     * see {@link CookieSession#id()}, which is checked on every read. Cookies of revoked sessions are removed and the
+     * request continues with an empty session.
+     *
+     * @param checker           Decides if a session has been revoked, like a {@link RevocationList}
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin withRevocation(RevocationChecker checker) {
+        this.revocationChecker = checker;
+        return this;
+    }
+
+    /**
+     * Only run the session handlers for matching paths. If no path is included, all paths are included.
+     *
+     * @param pattern           An exact path, a prefix like <code>/app/*</code> or a glob with <code>*</code>, <code>**</code> and <code>?</code> wildcards
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin includePath(String pattern) {
+        scope.include(pattern);
+        return this;
+    }
+
+    /**
+     * Never run the session handlers for matching paths, like static assets or health checks
+     *
+     * @param pattern           An exact path, a prefix like <code>/static/*</code> or a glob with <code>*</code>, <code>**</code> and <code>?</code> wildcards
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin excludePath(String pattern) {
+        scope.exclude(pattern);
+        return this;
+    }
+
+    /**
+     * Only run the session handlers for the specified HTTP methods
+     *
+     * @param methods           The HTTP methods that require a session
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin includeMethods(HandlerType ... methods) {
+        scope.methods(methods);
+        return this;
+    }
+
+    /**
+     * Only run the session handlers if the predicate matches, checked after all path and method rules
+     *
+     * @param predicate         A custom check against the context of the request
+     * @return this plugin
+     */
+    public CookieSessionStorePlugin includeIf(Predicate<Context> predicate) {
+        scope.predicate(predicate);
+        return this;
+    }
+
     @Override
     public void apply(@NotNull Javalin app) {
-        app.before(new CookieSessionStoreReadHandler(key, cookieName));
-        app.after(new CookieSessionStoreWriteHandler(key, cookieName, attributeFilter));
+        final SessionCodec sessionCodec = sessionCodec();
+        final SessionSettings settings = new SessionSettings(sessionCodec)
+                .withListener(listener)
+                .withExpiry(idleTimeout == null && absoluteTimeout == null ? null
+                        : new SessionExpiry(idleTimeout, absoluteTimeout, refreshFraction))
+                .withSpill(spillStore == null ? null : new SessionSpill(spillStore, sessionCodec, spillFilter))
+                .withLazy(lazy)
+                .withVerifiedSessionCache(verifiedSessionCache)
+                .withRejectedSessionCache(rejectedSessionCache)
+                .withRejectedSessionHandler(rejectedSessionHandler)
+                .withRevocationChecker(revocationChecker)
+                .withSessionIds(revocationChecker != null)
+                .withSchema(schema)
+                .withAttributePriorities(attributePriorities);
+
+        final List<Handler> readHandlers = new ArrayList<>();
+        final List<Handler> writeHandlers = new ArrayList<>();
+        Predicate<String> grouped = name -> false;
+        for (Map.Entry<String, Predicate<String>> group : attributeGroups.entrySet()) {
+            final SessionCookie groupCookie = new SessionCookie(group.getKey(), maxChunks,
+                    CookieSession.ATTRIBUTE + "." + group.getKey(), maxCookieSize);
+            final Predicate<String> groupFilter = grouped.negate().and(group.getValue());
+            final Handler groupReadHandler = new CookieSessionStoreReadHandler(settings, groupCookie);
+            readHandlers.add(ctx -> {
+                groupReadHandler.handle(ctx);
+                CookieSession.get(ctx).addGroup(groupFilter, ctx.attribute(groupCookie.sessionAttribute()));
+            });
+            writeHandlers.add(new CookieSessionStoreWriteHandler(settings, groupCookie, groupFilter));
+            grouped = grouped.or(group.getValue());
+        }
+        // the main cookie has to be read first, so that the groups can be added to its session
+        final SessionCookie sessionCookie = new SessionCookie(cookieName, maxChunks, CookieSession.ATTRIBUTE, maxCookieSize);
+        readHandlers.add(0, new CookieSessionStoreReadHandler(settings, sessionCookie));
+        writeHandlers.add(0, new CookieSessionStoreWriteHandler(settings, sessionCookie, attributeFilter.and(grouped.negate())));
+
+        final Handler readHandler = combine(readHandlers);
+        final Handler writeHandler = combine(writeHandlers);
+        if (scope.matchesAll()) {
+            app.before(readHandler);
+            app.after(writeHandler);
+        } else {
+            app.before(ctx -> {
+                if (scope.matches(ctx)) {
+                    readHandler.handle(ctx);
+                }
+            });
+            app.after(ctx -> {
+                if (scope.matches(ctx)) {
+                    writeHandler.handle(ctx);
+                }
+            });
+        }
+    }
+
+    private static Handler combine(List<Handler> handlers) {
+        if (handlers.size() == 1) {
+            return handlers.get(0);
+        }
+        return ctx -> {
+            for (Handler handler : handlers) {
+                handler.handle(ctx);
+            }
+        };
+    }
+
+    private SessionCodec sessionCodec() {
+        final SessionCodec sessionCodec;
+        if (codec != null) {
+            sessionCodec = codec;
+        } else if (encrypted) {
+            sessionCodec = new EncryptedSessionCodec(keyRing);
+        } else if (binaryFormat) {
+            sessionCodec = new BinarySessionCodec(keyRing, compressionThreshold);
+        } else {
+            sessionCodec = new JwtSessionCodec(keyRing, compressionThreshold);
+        }
+        return schema == null ? sessionCodec : new SchemaSessionCodec(sessionCodec, schema);
     }
 }
@@ -19,46 +19,203 @@ package de.spinscale.javalin.session;
 
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jws;
-import io.jsonwebtoken.JwtException;
-import io.jsonwebtoken.Jwts;
 import org.jetbrains.annotations.NotNull;
 
 import javax.crypto.SecretKey;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * A handler that runs before others, which checks for a certain cookie
  * If that cookie exists, the cookie is decrypted and its arguments are stored in the request attributes
+ *
+ * If a {@link VerifiedSessionCache} is configured, cookies that have been verified before are not parsed again.
+ * Cached cookies are still checked against their <code>exp</code> and <code>nbf</code> claims, and are verified again
+ * once the keys of the codec change, so that removing a key from the {@link KeyRing} takes effect right away.
+ * The {@link SessionListener} is notified about every verified or rejected cookie
+ * If a {@link SessionExpiry} is configured, timed out sessions are treated as empty and their cookie is removed
+ *
+ * Cookies longer than the configured cookie size of all chunks are rejected without being decoded. The room reserved
+ * for names and attributes of the cookies is not subtracted when reading, so that cookies written by earlier releases
+ * or before lowering the cookie size are still accepted. If a {@link RejectedSessionCache}
+ * is configured, cookies that have been rejected recently are rejected again without any further work. Every rejection
+ * is passed to the {@link RejectedSessionHandler}, if configured.
+ *
+ * If a {@link SessionSpill} is configured, attributes moved to the store are merged into the session, right away in
+ * eager mode and on access of a missing attribute in lazy mode.
+ *
+ * If a {@link RevocationChecker} is configured, cookies of revoked sessions are treated like timed out ones. The check
+ * runs after the verified session cache, so revoking a session takes effect right away.
+ *
+ * The decoded attributes are also stored as a {@link CookieSession}, so that the write handler can skip writing an
+ * unchanged session. In lazy mode the cookie is only read and decoded on first access of that session.
  */
 class CookieSessionStoreReadHandler implements Handler {
 
-    private final String cookieName;
-    private final SecretKey key;
+    private final SessionCookie sessionCookie;
+    private final SessionCodec codec;
+    private final VerifiedSessionCache cache;
+    private final boolean lazy;
+    private final SessionListener listener;
+    private final SessionExpiry expiry;
+    private final RejectedSessionCache rejectedCache;
+    private final RejectedSessionHandler rejectedHandler;
+    private final SessionSpill spill;
+    private final RevocationChecker revocation;
 
     public CookieSessionStoreReadHandler(SecretKey key, String cookieName) {
-        this.cookieName = cookieName;
-        this.key = key;
+        this(new SessionSettings(new JwtSessionCodec(key, -1)), new SessionCookie(cookieName, 1));
+    }
+
+    CookieSessionStoreReadHandler(SessionSettings settings, SessionCookie sessionCookie) {
+        this.sessionCookie = sessionCookie;
+        this.codec = settings.codec();
+        this.cache = settings.verifiedSessionCache();
+        this.lazy = settings.lazy();
+        this.listener = settings.listener();
+        this.expiry = settings.expiry();
+        this.rejectedCache = settings.rejectedSessionCache();
+        this.rejectedHandler = settings.rejectedSessionHandler();
+        this.spill = settings.spill();
+        this.revocation = settings.revocationChecker();
     }
 
     @Override
     public void handle(@NotNull Context ctx) throws Exception {
-        final String data = ctx.cookie(cookieName);
-
-        if (data == null || data.isEmpty()) {
+        if (lazy) {
+            ctx.attribute(sessionCookie.sessionAttribute(), CookieSession.lazy(session -> {
+                final Map<String, Object> claims = load(ctx);
+                if (claims == null) {
+                    return Collections.emptyMap();
+                }
+                session.issued(SessionExpiry.issuedAt(claims), SessionExpiry.authenticatedAt(claims), sessionId(claims));
+                final String reference = spillReference(claims);
+                if (reference != null) {
+                    session.spilled(reference, s -> spill.load(reference));
+                }
+                return ReservedClaims.strip(claims);
+            }));
             return;
         }
 
         try {
-            final Jws<Claims> claims = Jwts.parser().setSigningKey(key).parseClaimsJws(data);
-            for (Map.Entry<String, Object> entry : claims.getBody().entrySet()) {
+            final Map<String, Object> claims = load(ctx);
+            if (claims == null) {
+                ctx.attribute(sessionCookie.sessionAttribute(), CookieSession.eager(ctx, Collections.emptyMap()));
+                return;
+            }
+
+            final String reference = spillReference(claims);
+            Map<String, Object> attributes = ReservedClaims.strip(claims);
+            if (reference != null) {
+                final Map<String, Object> merged = new LinkedHashMap<>(loadSpilled(reference));
+                merged.putAll(attributes);
+                attributes = merged;
+            }
+            for (Map.Entry<String, Object> entry : attributes.entrySet()) {
                 ctx.attribute(entry.getKey(), entry.getValue());
             }
-        } catch (JwtException e) {
-            // someone fiddled with the authentication
-            ctx.removeCookie(cookieName);
-            ctx.status(401);
+            // the route gets the decoded values, so the snapshot needs its own copy of values that can be modified in place
+            final CookieSession session = CookieSession.eager(ctx,
+                    SessionValues.isImmutable(attributes) ? attributes : SessionValues.deepCopy(attributes));
+            session.issued(SessionExpiry.issuedAt(claims), SessionExpiry.authenticatedAt(claims), sessionId(claims));
+            session.spilled(reference, null);
+            ctx.attribute(sessionCookie.sessionAttribute(), session);
+        } catch (InvalidSessionException e) {
+            sessionCookie.remove(ctx);
+            // the cookie is gone, so the write handler must not remove it again
+            ctx.attribute(sessionCookie.sessionAttribute(), CookieSession.eager(ctx, Collections.emptyMap()));
+            if (e.reason() != InvalidSessionException.Reason.EXPIRED && e.reason() != InvalidSessionException.Reason.REVOKED) {
+                // someone fiddled with the authentication
+                ctx.status(401);
+            }
+        }
+    }
+
+    /**
+     * @return The verified claims of the cookie, including the reserved ones, or null if there is no cookie
+     */
+    private Map<String, Object> load(Context ctx) throws InvalidSessionException {
+        final long start = System.nanoTime();
+        try {
+            final String data = sessionCookie.read(ctx);
+            if (data == null || data.isEmpty()) {
+                return null;
+            }
+            final Map<String, Object> claims = decode(data);
+            if (expiry != null) {
+                expiry.check(claims, SessionExpiry.now());
+            }
+            if (revocation != null) {
+                final String sessionId = sessionId(claims);
+                if (sessionId != null && revocation.isRevoked(sessionId)) {
+                    throw InvalidSessionException.withoutStackTrace(InvalidSessionException.Reason.REVOKED, "session has been revoked");
+                }
+            }
+            listener.onVerified(data.length(), System.nanoTime() - start);
+            return claims;
+        } catch (InvalidSessionException e) {
+            listener.onRejected(e, System.nanoTime() - start);
+            if (rejectedHandler != null) {
+                rejectedHandler.onRejected(ctx, e);
+            }
+            throw e;
+        }
+    }
+
+    private static String sessionId(Map<String, Object> claims) {
+        final Object sessionId = claims.get(ReservedClaims.SESSION_ID);
+        return sessionId instanceof String ? (String) sessionId : null;
+    }
+
+    /**
+     * @return The reference to the attributes moved to the store, null if there is none or no store is configured
+     */
+    private String spillReference(Map<String, Object> claims) {
+        if (spill == null) {
+            return null;
+        }
+        final Object reference = claims.get(ReservedClaims.SPILL_REFERENCE);
+        return reference instanceof String ? (String) reference : null;
+    }
+
+    private Map<String, Object> loadSpilled(String reference) {
+        try {
+            return spill.load(reference);
+        } catch (InvalidSessionException e) {
+            // the cookie itself is valid, continue without the moved attributes
+            return Collections.emptyMap();
+        }
+    }
+
+    private Map<String, Object> decode(String data) throws InvalidSessionException {
+        if (data.length() > sessionCookie.maxReadLength()) {
+            throw InvalidSessionException.withoutStackTrace(InvalidSessionException.Reason.MALFORMED, "session cookie is too long");
+        }
+        if (rejectedCache != null) {
+            final InvalidSessionException.Reason reason = rejectedCache.get(data);
+            if (reason != null) {
+                throw InvalidSessionException.withoutStackTrace(reason, "session cookie has been rejected before");
+            }
+        }
+
+        // read before verifying, so that a key update in between discards the cached entry instead of keeping it
+        final Object keyGeneration = cache == null ? null : codec.keyGeneration();
+        Map<String, Object> attributes = cache == null ? null : cache.get(data, keyGeneration);
+        if (attributes == null) {
+            try {
+                attributes = codec.decode(data);
+            } catch (InvalidSessionException e) {
+                if (rejectedCache != null) {
+                    rejectedCache.put(data, e.reason());
+                }
+                throw e;
+            }
+            if (cache != null) {
+                cache.put(data, attributes, keyGeneration);
+            }
         }
+        return attributes;
     }
 }
@@ -20,55 +20,253 @@ package de.spinscale.javalin.session;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
-import io.jsonwebtoken.JwtBuilder;
-import io.jsonwebtoken.Jwts;
 import org.jetbrains.annotations.NotNull;
 
 import javax.crypto.SecretKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
 
 /**
  * A handler that runs after others, which adds a cookie.
- * If request attributes exists, their value is encrypted and stored in the respective cookie.
+ * If request attributes exists, their value is signed by the codec and stored in the respective cookie.
  *
- * If the size of the cookie exceeds 4kb a warning is logged and the cookie is removed.
+ * If the size of the cookie exceeds the maximum cookie size, by default 4kb, it is split into several cookies, if
+ * chunking is enabled. If it exceeds the size of all chunks together, a warning is logged and the cookie is removed.
+ * Sessions whose lower bound of the encoded size, as estimated by {@link SessionCodec#minimumLength(Map, int)},
+ * exceeds the limit are not signed at all.
  * If no attributes are found, the cookie is removed
+ *
+ * If the attributes are the same that have been read from the cookie by the read handler, the response is not modified.
+ * A lazy session that has never been accessed is not decoded at all, unless request attributes need to be stored.
+ * The session keeps its own deep copy of decoded maps, lists and byte arrays, so modifying those in place is detected.
+ * Values of other mutable types are compared using equals against the decoded instance, so replace them instead.
+ *
+ * If a {@link SessionExpiry} is configured, written cookies carry their issue time and the start of the session, and
+ * an unchanged session is written again once its cookie is old enough, to slide the idle timeout. A lazy session that
+ * has never been accessed is not refreshed, as that would require verifying the cookie.
+ *
+ * If a {@link SessionSpill} is configured, flagged attributes are moved to its store. So are all but small attributes,
+ * if the cookie would be too big otherwise. Moved attributes of a lazy session are only loaded if the session is written.
+ * The store is only written once the cookie is, a session rejected as too big removes its stored attributes instead.
+ *
+ * For asynchronous responses set via {@link Context#result(java.util.concurrent.CompletableFuture)}, Javalin runs this
+ * handler once the future has completed, on the thread completing it, and before the response is written. Attributes
+ * set within the future are stored as well. If the response has already been committed, for example because the
+ * request timed out, the cookie cannot be set anymore and the session is not written.
+ *
+ * If {@link AttributePriorities} are configured and the session is still too big after moving attributes to the
+ * store, attributes are dropped lowest priority first until the session fits. The attributes to drop are chosen by
+ * their estimated size before signing again, so the session is usually signed only once more. Dropped attributes are
+ * logged and reported to the {@link SessionListener}.
+ *
+ * If revocation is enabled, written cookies carry the id of the session, see {@link CookieSession#id()}. Cookies of
+ * unchanged sessions written before enabling revocation get their id once they are written again, or as soon as
+ * their id is requested.
+ *
+ * If a {@link SessionSchema} is configured, only the request attributes of its keys are looked up, instead of
+ * filtering all request attributes.
+ *
+ * Request attributes named like the claims the plugin writes itself, see {@link ReservedClaims}, are not stored, as
+ * they would be lost when reading the cookie. They are logged and reported as dropped to the {@link SessionListener}.
  */
 public class CookieSessionStoreWriteHandler implements Handler {
 
-    private final String cookieName;
-    private final SecretKey key;
+    private final SessionCookie sessionCookie;
+    private final SessionCodec codec;
     private final Predicate<String> attributeFilter;
+    private final SessionListener listener;
+    private final SessionExpiry expiry;
+    private final SessionSpill spill;
+    // names of the attributes to look up, or null to filter all request attributes
+    private final String[] attributeNames;
+    private final AttributePriorities priorities;
+    private final boolean withSessionId;
 
     CookieSessionStoreWriteHandler(SecretKey key, String cookieName, Predicate<String> attributeFilter) {
-        this.cookieName = cookieName;
-        this.key = key;
+        this(new SessionSettings(new JwtSessionCodec(key, -1)), new SessionCookie(cookieName, 1), attributeFilter);
+    }
+
+    CookieSessionStoreWriteHandler(SessionSettings settings, SessionCookie sessionCookie, Predicate<String> attributeFilter) {
+        this.sessionCookie = sessionCookie;
+        this.codec = settings.codec();
         this.attributeFilter = attributeFilter;
+        this.listener = settings.listener();
+        this.expiry = settings.expiry();
+        this.spill = settings.spill();
+        this.attributeNames = settings.schema() == null ? null : settings.schema().names(attributeFilter);
+        this.priorities = settings.attributePriorities();
+        this.withSessionId = settings.sessionIds();
     }
 
     @Override
     public void handle(@NotNull Context ctx) throws Exception {
-        final Map<String, Object> attributes = ctx.attributeMap();
-        final boolean hasCookieAttributes = !attributes.isEmpty() && attributes.keySet().stream().anyMatch(attributeFilter);
-        if (hasCookieAttributes) {
-            final JwtBuilder builder = Jwts.builder().signWith(key);
-
-            attributes.forEach((key, value) -> {
-                if (attributeFilter.test(key)) {
-                    builder.claim(key, value);
+        final Map<String, Object> requestAttributes = new LinkedHashMap<>();
+        if (attributeNames != null) {
+            for (String name : attributeNames) {
+                final Object value = ctx.attribute(name);
+                if (value != null) {
+                    requestAttributes.put(name, value);
+                }
+            }
+        } else {
+            List<String> reserved = null;
+            for (Map.Entry<String, Object> entry : ctx.attributeMap().entrySet()) {
+                final String key = entry.getKey();
+                if (!key.startsWith(CookieSessionStorePlugin.INTERNAL_ATTRIBUTE_PREFIX) && attributeFilter.test(key)) {
+                    if (ReservedClaims.isReserved(key)) {
+                        if (reserved == null) {
+                            reserved = new ArrayList<>();
+                        }
+                        reserved.add(key);
+                    } else {
+                        requestAttributes.put(key, entry.getValue());
+                    }
                 }
-            });
+            }
+            if (reserved != null) {
+                Javalin.log.warn("Session attributes {} are not stored, their names are reserved", reserved);
+                listener.onAttributesDropped(reserved);
+            }
+        }
 
-            String jws = builder.compact();
-            if (jws.length() > 4096) {
-                Javalin.log.warn("Cannot store session in cookie, too big...");
-                ctx.removeCookie(cookieName);
+        final CookieSession session = ctx.attribute(sessionCookie.sessionAttribute());
+        Map<String, Object> attributes;
+        if (session != null && session.isLazy()) {
+            if (!session.isLoaded() && requestAttributes.isEmpty()) {
+                // nobody looked at the session, so it cannot have changed
+                return;
+            }
+            attributes = new LinkedHashMap<>(session.attributes());
+            attributes.putAll(requestAttributes);
+        } else {
+            attributes = requestAttributes;
+        }
+
+        final long now = expiry == null ? 0 : SessionExpiry.now();
+        // an id assigned during this request has to be stored, otherwise it is a different one on the next request
+        final boolean storeNewId = withSessionId && !attributes.isEmpty() && CookieSession.get(ctx).hasNewId();
+        if (session != null && !storeNewId && SessionValues.equals(attributes, session.snapshot())) {
+            if (expiry == null || !expiry.needsRefresh(session, now)) {
+                // session is unchanged, the client already has this cookie or none at all
+                return;
+            }
+        }
+
+        if (ctx.res.isCommitted()) {
+            Javalin.log.warn("Cannot store session in cookie, response has already been committed");
+            return;
+        }
+
+        if (session != null && session.hasUnloadedSpill()) {
+            // the cookie is replaced, so the moved attributes need to be stored again
+            session.loadSpilled();
+            attributes = new LinkedHashMap<>(session.attributes());
+            attributes.putAll(requestAttributes);
+        }
+
+        final String reference = session == null ? null : session.spillReference();
+        if (!attributes.isEmpty()) {
+            final long start = System.nanoTime();
+            // attribute groups share the id of the main session, so that revoking it revokes all of their cookies
+            final String sessionId = withSessionId ? CookieSession.get(ctx).id() : null;
+            SessionSpill.Split split = spill == null ? null : spill.split(attributes, reference, false);
+            Map<String, Object> cookieAttributes = split == null ? attributes : split.cookieAttributes;
+            String value = encode(cookieAttributes, session, sessionId, now);
+            if (spill != null && !fits(value)) {
+                // nothing has been stored yet, so splitting again only costs signing again
+                split = spill.split(attributes, reference, true);
+                cookieAttributes = split.cookieAttributes;
+                value = encode(cookieAttributes, session, sessionId, now);
+            }
+            List<String> dropped = Collections.emptyList();
+            if (priorities != null && !fits(value)) {
+                dropped = new ArrayList<>();
+                value = drop(cookieAttributes, value, dropped, session, sessionId, now);
+            }
+            final long nanos = System.nanoTime() - start;
+            if (value != null && sessionCookie.write(ctx, value)) {
+                if (split != null) {
+                    spill.store(split);
+                }
+                if (!dropped.isEmpty()) {
+                    Javalin.log.warn("Dropped session attributes {} to fit the session into the cookie", dropped);
+                    listener.onAttributesDropped(dropped);
+                }
+                listener.onWritten(value.length(), nanos);
             } else {
-                ctx.cookie(cookieName, jws);
+                Javalin.log.warn("Cannot store session in cookie, too big...");
+                listener.onTooBig(value == null ? codec.minimumLength(cookieAttributes, sessionCookie.maxLength()) : value.length());
+                sessionCookie.remove(ctx);
+                if (spill != null && reference != null) {
+                    spill.remove(reference);
+                }
             }
         } else {
-                ctx.removeCookie(cookieName);
+            sessionCookie.remove(ctx);
+            if (spill != null && reference != null) {
+                spill.remove(reference);
+            }
+            listener.onCleared();
+        }
+    }
+
+    /**
+     * @return The encoded attributes, or null if they cannot fit into the cookie, in which case they are not encoded
+     */
+    private String encode(Map<String, Object> attributes, CookieSession session, String sessionId, long now) {
+        if (expiry != null) {
+            expiry.stamp(attributes, session, now);
+        }
+        if (sessionId != null) {
+            attributes.put(ReservedClaims.SESSION_ID, sessionId);
+        }
+        if (codec.minimumLength(attributes, sessionCookie.maxLength()) > sessionCookie.maxLength()) {
+            return null;
+        }
+        return codec.encode(attributes);
+    }
+
+    /**
+     * Drop attributes lowest priority first, until the estimated length fits, and sign only then. The saving of each
+     * attribute is estimated from its serialized size, scaled by the ratio of the encoded to the serialized size of
+     * the whole session, which covers encoding as well as compression. If the estimate falls short, dropping
+     * continues from there.
+     *
+     * @param value     The encoded attributes or null if they have not been encoded
+     * @param dropped   Collects the names of the dropped attributes
+     * @return The encoded attributes, or null if they still do not fit
+     */
+    private String drop(Map<String, Object> cookieAttributes, String value, List<String> dropped, CookieSession session,
+                        String sessionId, long now) {
+        final int maxLength = sessionCookie.maxLength();
+        long length = value == null ? codec.minimumLength(cookieAttributes, Integer.MAX_VALUE) : value.length();
+        final int serializedSize = SessionSize.minimumSize(cookieAttributes, Integer.MAX_VALUE);
+        final double ratio = serializedSize == 0 ? 1 : (double) length / serializedSize;
+
+        final Iterator<String> order = priorities.dropOrder(cookieAttributes).iterator();
+        while (order.hasNext()) {
+            do {
+                final String name = order.next();
+                final Object removed = cookieAttributes.remove(name);
+                dropped.add(name);
+                length -= (long) (SessionSize.minimumSize(Collections.singletonMap(name, removed), Integer.MAX_VALUE) * ratio);
+            } while (length > maxLength && order.hasNext());
+
+            value = encode(cookieAttributes, session, sessionId, now);
+            if (fits(value)) {
+                return value;
+            }
+            length = value == null ? codec.minimumLength(cookieAttributes, Integer.MAX_VALUE) : value.length();
         }
+        return value;
+    }
+
+    private boolean fits(String value) {
+        return value != null && value.length() <= sessionCookie.maxLength();
     }
 }
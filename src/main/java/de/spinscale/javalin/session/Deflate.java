@@ -0,0 +1,93 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * DEFLATE compression in the zlib format, as used for the <code>DEF</code> JWT compression algorithm
+ */
+final class Deflate {
+
+    // protects against decompression bombs, a cookie can never hold more than this
+    static final int MAX_INFLATED_SIZE = 64 * 1024;
+    // DEFLATE cannot compress data better than this, a match of 258 bytes takes at least two bits
+    static final int MAX_COMPRESSION_RATIO = 1032;
+    // zlib header and adler32 checksum
+    private static final int ZLIB_OVERHEAD = 6;
+
+    private Deflate() {}
+
+    /**
+     * @param size  A lower bound of the size of the data, that may or may not be compressed
+     * @return A lower bound of the size of the data after compression, if it is compressed
+     */
+    static int minimumCompressedSize(int size) {
+        return Math.min(size, size / MAX_COMPRESSION_RATIO + ZLIB_OVERHEAD);
+    }
+
+    /**
+     * @return The size of data, that may still compress to the specified size
+     */
+    static int maximumUncompressedSize(int compressedSize) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) compressedSize * MAX_COMPRESSION_RATIO);
+    }
+
+    static byte[] compress(byte[] data, int offset, int length) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+            final byte[] chunk = new byte[512];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] data, int offset, int length) throws InvalidSessionException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, length);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+            final byte[] chunk = new byte[512];
+            while (!inflater.finished()) {
+                final int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new InvalidSessionException("truncated compressed session cookie");
+                }
+                out.write(chunk, 0, inflated);
+                if (out.size() > MAX_INFLATED_SIZE) {
+                    throw new InvalidSessionException("compressed session cookie is too big");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new InvalidSessionException("malformed compressed session cookie", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
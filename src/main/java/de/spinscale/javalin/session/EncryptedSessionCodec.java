@@ -0,0 +1,182 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+
+/**
+ * A codec, that encrypts and authenticates the attributes with AES-256-GCM, so that their content is not visible to
+ * the client
+ *
+ * The cookie value is the base64url encoded concatenation of a format byte, an optional length prefixed kid, a random
+ * 96 bit IV, and the attributes in the binary format of the {@link BinarySessionCodec}, encrypted in place, followed
+ * by the 128 bit authentication tag. The format byte and kid are authenticated as additional data.
+ *
+ * The AES key of every key in the {@link KeyRing} is derived from its signing key, so key rotation works the same way
+ * as for signed sessions. Ciphers are kept per thread and reinitialized for every cookie, and the JDK uses the AES and
+ * GHASH instructions of the CPU where available. Values are never compressed, as compressing before encrypting leaks
+ * information about the content through the length of the cookie.
+ *
+ * Values in any other format are decoded by the {@link BinarySessionCodec}, which also reads JWTs, so that sessions
+ * written before enabling encryption can still be read.
+ */
+class EncryptedSessionCodec implements SessionCodec {
+
+    private static final byte FORMAT_ENCRYPTED = (byte) 0xE1;
+    private static final byte FORMAT_ENCRYPTED_WITH_KID = (byte) 0xE3;
+    // the upper six bits of the format bytes, so every value starts with this base64url character
+    private static final char FORMAT_PREFIX = '4';
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int MIN_LENGTH = Base64Url.encodedLength(1 + IV_LENGTH + 1 + TAG_LENGTH);
+
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
+        }
+    });
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    private final KeyRing keyRing;
+    private final SessionCodec signedCodec;
+
+    EncryptedSessionCodec(KeyRing keyRing) {
+        this.keyRing = keyRing;
+        this.signedCodec = new BinarySessionCodec(keyRing, -1);
+    }
+
+    @Override
+    public String encode(Map<String, Object> attributes) {
+        final KeyRing.Entry key = keyRing.active();
+        final boolean withKid = key.kidBytes.length > 0;
+        final BinarySessionCodec.Output out = new BinarySessionCodec.Output(Scratch.get());
+        out.write(withKid ? FORMAT_ENCRYPTED_WITH_KID : FORMAT_ENCRYPTED);
+        if (withKid) {
+            out.write(key.kidBytes.length);
+            out.write(key.kidBytes, 0, key.kidBytes.length);
+        }
+        final int aadLength = out.position;
+        final byte[] iv = new byte[IV_LENGTH];
+        RANDOM.get().nextBytes(iv);
+        out.write(iv, 0, IV_LENGTH);
+        final int headerLength = out.position;
+        BinarySessionCodec.writeAttributes(out, attributes);
+        final int plainLength = out.position - headerLength;
+        out.ensure(TAG_LENGTH);
+
+        // layout: format, optional kid, iv, encrypted attributes, tag
+        final int tokenLength;
+        try {
+            final Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key.encryptionKey(), new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(out.buffer, 0, aadLength);
+            tokenLength = headerLength + cipher.doFinal(out.buffer, headerLength, plainLength, out.buffer, headerLength);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("cannot encrypt session", e);
+        }
+        final byte[] encoded = Scratch.get().first(Base64Url.encodedLength(tokenLength));
+        final int length = Base64Url.encode(out.buffer, 0, tokenLength, encoded, 0);
+        return new String(encoded, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public Object keyGeneration() {
+        return keyRing.entries();
+    }
+
+    @Override
+    public int minimumLength(Map<String, Object> attributes, int maxLength) {
+        return Base64Url.encodedLength(1 + IV_LENGTH + SessionSize.minimumSize(attributes, maxLength) + TAG_LENGTH);
+    }
+
+    @Override
+    public Map<String, Object> decode(String value) throws InvalidSessionException {
+        if (value.isEmpty() || value.charAt(0) != FORMAT_PREFIX) {
+            return signedCodec.decode(value);
+        }
+        if (value.length() < MIN_LENGTH) {
+            throw malformed("session cookie is too short");
+        }
+
+        final Scratch scratch = Scratch.get();
+        final byte[] token = scratch.first(Base64Url.decodedLength(value.length()));
+        final int tokenLength = Base64Url.decode(value, 0, value.length(), token, 0);
+        if (tokenLength < 0) {
+            throw malformed("session cookie is not base64url encoded");
+        }
+
+        final byte format = token[0];
+        if (format != FORMAT_ENCRYPTED && format != FORMAT_ENCRYPTED_WITH_KID) {
+            throw malformed("unknown session cookie format " + format);
+        }
+        final boolean withKid = format == FORMAT_ENCRYPTED_WITH_KID;
+        final int aadLength = withKid ? 2 + (token[1] & 0xFF) : 1;
+        final int headerLength = aadLength + IV_LENGTH;
+        if (tokenLength < headerLength + TAG_LENGTH) {
+            throw malformed("session cookie is too short");
+        }
+        final KeyRing.Entry key = withKid ? keyFor(token) : keyRing.get("");
+        if (key == null) {
+            throw new InvalidSessionException(InvalidSessionException.Reason.SIGNATURE, "session cookie is encrypted with unknown key");
+        }
+
+        final byte[] plain = scratch.second(tokenLength);
+        final int plainLength;
+        try {
+            final Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, key.encryptionKey(), new GCMParameterSpec(TAG_LENGTH * 8, token, aadLength, IV_LENGTH));
+            cipher.updateAAD(token, 0, aadLength);
+            plainLength = cipher.doFinal(token, headerLength, tokenLength - headerLength, plain, 0);
+        } catch (AEADBadTagException e) {
+            throw InvalidSessionException.withoutStackTrace(InvalidSessionException.Reason.SIGNATURE, "session cookie cannot be authenticated");
+        } catch (GeneralSecurityException e) {
+            throw new InvalidSessionException("cannot decrypt session cookie", e);
+        }
+        return BinarySessionCodec.readAttributes(ByteBuffer.wrap(plain, 0, plainLength));
+    }
+
+    private KeyRing.Entry keyFor(byte[] token) {
+        final int kidLength = token[1] & 0xFF;
+        final KeyRing.Entry active = keyRing.active();
+        if (active.kidBytes.length == kidLength) {
+            boolean equal = true;
+            for (int i = 0; i < kidLength && equal; i++) {
+                equal = token[2 + i] == active.kidBytes[i];
+            }
+            if (equal) {
+                return active;
+            }
+        }
+        return keyRing.get(new String(token, 2, kidLength, StandardCharsets.UTF_8));
+    }
+
+    private static InvalidSessionException malformed(String message) {
+        return InvalidSessionException.withoutStackTrace(InvalidSessionException.Reason.MALFORMED, message);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.javalin.Javalin;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A key ring that reloads its keys from a properties file, whenever the modification time of that file changes
+ *
+ * Checking is done on access, so there is no background thread, and at most once per check interval.
+ */
+class FileKeyRing extends KeyRing {
+
+    static final String ACTIVE_PROPERTY = "active";
+
+    private final Path file;
+    private final long checkIntervalNanos;
+    private volatile long nextCheck;
+    private volatile FileTime lastModified;
+
+    FileKeyRing(Path file, Duration checkInterval) {
+        // the modification time is read first, so that a change while loading is picked up by the next check
+        this(file, checkInterval, lastModified(file), load(file));
+    }
+
+    private FileKeyRing(Path file, Duration checkInterval, FileTime lastModified, Properties properties) {
+        super(properties.getProperty(ACTIVE_PROPERTY), keys(properties));
+        this.file = file;
+        this.checkIntervalNanos = checkInterval.toNanos();
+        this.nextCheck = System.nanoTime() + checkIntervalNanos;
+        this.lastModified = lastModified;
+    }
+
+    @Override
+    Entries entries() {
+        final long now = System.nanoTime();
+        if (now - nextCheck >= 0) {
+            nextCheck = now + checkIntervalNanos;
+            reloadIfModified();
+        }
+        return super.entries();
+    }
+
+    private void reloadIfModified() {
+        try {
+            final FileTime modified = lastModified(file);
+            if (modified.equals(lastModified)) {
+                return;
+            }
+            lastModified = modified;
+            final Properties properties = load(file);
+            update(properties.getProperty(ACTIVE_PROPERTY), keys(properties));
+            Javalin.log.info("Reloaded session keys from {}", file);
+        } catch (RuntimeException e) {
+            Javalin.log.warn("Cannot reload session keys from " + file + ", keeping the current keys", e);
+        }
+    }
+
+    private static Properties load(Path file) {
+        final Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read session keys from " + file, e);
+        }
+        if (properties.getProperty(ACTIVE_PROPERTY) == null) {
+            throw new IllegalArgumentException("session key file " + file + " does not specify the active kid");
+        }
+        return properties;
+    }
+
+    private static Map<String, SecretKey> keys(Properties properties) {
+        final Map<String, SecretKey> keys = new HashMap<>();
+        for (String kid : properties.stringPropertyNames()) {
+            if (!ACTIVE_PROPERTY.equals(kid)) {
+                final byte[] secret = Base64.getDecoder().decode(properties.getProperty(kid).trim());
+                keys.put(kid, new SecretKeySpec(secret, "HmacSHA256"));
+            }
+        }
+        return keys;
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read session keys from " + file, e);
+        }
+    }
+}
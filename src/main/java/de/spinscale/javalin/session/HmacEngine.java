@@ -0,0 +1,114 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import java.security.GeneralSecurityException;
+
+/**
+ * Signs and verifies data with an HMAC, reusing one initialized {@link Mac} per thread
+ *
+ * Looking up and initializing a Mac is expensive compared to signing a few kilobytes, so each thread keeps its own
+ * instance. Signatures are written into caller provided arrays and compared in constant time without copying.
+ */
+final class HmacEngine {
+
+    private final String jwtAlgorithm;
+    private final int macLength;
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * @param key           The key to sign with
+     * @param jwtAlgorithm  One of HS256, HS384 or HS512
+     */
+    HmacEngine(SecretKey key, String jwtAlgorithm) {
+        this.jwtAlgorithm = jwtAlgorithm;
+        final String jcaAlgorithm = "HmacSHA" + jwtAlgorithm.substring(2);
+        final Mac mac = newMac(key, jcaAlgorithm);
+        this.macLength = mac.getMacLength();
+        this.macs = ThreadLocal.withInitial(() -> newMac(key, jcaAlgorithm));
+    }
+
+    /**
+     * Pick the strongest algorithm the key is long enough for, like jjwt does when signing
+     */
+    static HmacEngine forKey(SecretKey key) {
+        final byte[] encoded = key.getEncoded();
+        final int bits = encoded == null ? 0 : encoded.length * 8;
+        if (bits >= 512) {
+            return new HmacEngine(key, "HS512");
+        } else if (bits >= 384) {
+            return new HmacEngine(key, "HS384");
+        } else if (bits >= 256) {
+            return new HmacEngine(key, "HS256");
+        }
+        throw new IllegalArgumentException("key must be at least 256 bits long to sign the session, got " + bits);
+    }
+
+    String jwtAlgorithm() {
+        return jwtAlgorithm;
+    }
+
+    int macLength() {
+        return macLength;
+    }
+
+    /**
+     * Sign the data and write the signature to the output
+     *
+     * @return The offset in the output after the signature
+     */
+    int sign(byte[] data, int offset, int length, byte[] output, int outputOffset) {
+        final Mac mac = macs.get();
+        mac.update(data, offset, length);
+        try {
+            mac.doFinal(output, outputOffset);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException("signature buffer is too small", e);
+        }
+        return outputOffset + macLength;
+    }
+
+    /**
+     * @return true if the signature of the data matches the expected signature
+     */
+    boolean verify(byte[] data, int offset, int length, byte[] expected, int expectedOffset, int expectedLength) {
+        if (expectedLength != macLength) {
+            return false;
+        }
+        final byte[] signature = Scratch.get().mac();
+        sign(data, offset, length, signature, 0);
+        int result = 0;
+        for (int i = 0; i < macLength; i++) {
+            result |= signature[i] ^ expected[expectedOffset + i];
+        }
+        return result == 0;
+    }
+
+    private static Mac newMac(SecretKey key, String algorithm) {
+        try {
+            final Mac mac = Mac.getInstance(algorithm);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("key cannot be used to sign the session with " + algorithm, e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A session store keeping its entries on the heap, evicting the least recently used ones once the total size of all
+ * entries exceeds the configured limit
+ *
+ * Entries are not shared between nodes, so this requires sticky sessions when running more than one node.
+ */
+public class InMemorySessionStore implements SessionStore {
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long evictions;
+
+    /**
+     * @param maxBytes  The maximum size of all stored entries
+     */
+    public InMemorySessionStore(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive, got " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized void put(String id, byte[] data) {
+        final byte[] previous = entries.put(id, data);
+        bytes += data.length - (previous == null ? 0 : previous.length);
+        final Iterator<Map.Entry<String, byte[]>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().length;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    @Override
+    public synchronized byte[] get(String id) {
+        return entries.get(id);
+    }
+
+    @Override
+    public synchronized void remove(String id) {
+        final byte[] previous = entries.remove(id);
+        if (previous != null) {
+            bytes -= previous.length;
+        }
+    }
+
+    /**
+     * @return The total size of all stored entries
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The number of entries removed because the store was full
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+}
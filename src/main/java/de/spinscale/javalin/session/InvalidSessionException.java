@@ -0,0 +1,76 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+/**
+ * Thrown when a session cookie cannot be decoded, because it is malformed or its signature does not match
+ */
+public class InvalidSessionException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Why a session cookie has been rejected
+     */
+    public enum Reason {
+        /** The cookie cannot be parsed */
+        MALFORMED,
+        /** The signature does not match or the key is unknown, most likely the cookie has been tampered with */
+        SIGNATURE,
+        /** The cookie has expired or is not valid yet */
+        EXPIRED,
+        /** The session has been revoked, see {@link RevocationChecker} */
+        REVOKED
+    }
+
+    private final Reason reason;
+
+    public InvalidSessionException(String message) {
+        this(Reason.MALFORMED, message);
+    }
+
+    public InvalidSessionException(String message, Throwable cause) {
+        super(message, cause);
+        this.reason = Reason.MALFORMED;
+    }
+
+    public InvalidSessionException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    private InvalidSessionException(Reason reason, String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+        this.reason = reason;
+    }
+
+    /**
+     * Junk and tampered cookies are common under attack, and filling in a stack trace that is never looked at costs
+     * more than rejecting the cookie, so those rejections skip it
+     */
+    static InvalidSessionException withoutStackTrace(Reason reason, String message) {
+        return new InvalidSessionException(reason, message, false);
+    }
+
+    /**
+     * @return Why the cookie has been rejected
+     */
+    public Reason reason() {
+        return reason;
+    }
+}
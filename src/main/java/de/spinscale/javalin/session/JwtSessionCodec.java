@@ -0,0 +1,294 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.jsonwebtoken.io.DeserializationException;
+import io.jsonwebtoken.io.Deserializer;
+import io.jsonwebtoken.io.Serializer;
+import io.jsonwebtoken.orgjson.io.OrgJsonDeserializer;
+import io.jsonwebtoken.orgjson.io.OrgJsonSerializer;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The default codec, storing the attributes as claims of a signed JWT
+ *
+ * If compression is enabled and the serialized attributes exceed the compression threshold, the payload is compressed
+ * using DEFLATE and marked with the standard <code>zip</code> JWT header, which is picked up when decoding.
+ *
+ * Signing and verification do not use the jjwt builder and parser, but an {@link HmacEngine} working on per thread
+ * scratch buffers. Tokens written with the active key of the {@link KeyRing} have one of two fixed headers, which are
+ * recognized without parsing any JSON. Other headers, like the ones of older keys or written by older versions via
+ * jjwt, are parsed to look up the key by its <code>kid</code> and must use the algorithm of that key.
+ *
+ * Before any decoding or crypto work, the structure, the alphabet and the header prefix of a value are checked in a
+ * single pass, so that junk cookies are rejected cheaply.
+ */
+class JwtSessionCodec implements SessionCodec {
+
+    // base64url of '{"', the start of every JSON header
+    private static final String HEADER_PREFIX = "eyJ";
+    // a header with a kid and compression is less than 100 characters
+    private static final int MAX_HEADER_LENGTH = 256;
+    private static final int MIN_SIGNATURE_LENGTH = Base64Url.encodedLength(32);
+
+    private final KeyRing keyRing;
+    private final int compressionThreshold;
+    private final Serializer<Map<String, ?>> serializer = new OrgJsonSerializer<>();
+    private final Deserializer<Object> deserializer = new OrgJsonDeserializer();
+    // the encoded headers of the active key, replaced when the key ring changes its active key
+    private volatile Headers headers;
+
+    /**
+     * @param compressionThreshold  The minimum size of the serialized attributes in bytes to compress them, -1 to disable compression
+     */
+    JwtSessionCodec(SecretKey key, int compressionThreshold) {
+        this(KeyRing.of(key), compressionThreshold);
+    }
+
+    /**
+     * @param compressionThreshold  The minimum size of the serialized attributes in bytes to compress them, -1 to disable compression
+     */
+    JwtSessionCodec(KeyRing keyRing, int compressionThreshold) {
+        this.keyRing = keyRing;
+        this.compressionThreshold = compressionThreshold;
+        this.headers = new Headers(keyRing.active());
+    }
+
+    @Override
+    public String encode(Map<String, Object> attributes) {
+        byte[] payload = serializer.serialize(attributes);
+        final boolean compress = compressionThreshold >= 0 && payload.length >= compressionThreshold;
+        if (compress) {
+            payload = Deflate.compress(payload, 0, payload.length);
+        }
+        final Headers headers = activeHeaders();
+        final HmacEngine engine = headers.key.engine;
+        final byte[] header = compress ? headers.compressed : headers.plain;
+
+        final int length = header.length + 1 + Base64Url.encodedLength(payload.length) + 1 + Base64Url.encodedLength(engine.macLength());
+        final byte[] buffer = Scratch.get().first(length);
+        System.arraycopy(header, 0, buffer, 0, header.length);
+        int position = header.length;
+        buffer[position++] = '.';
+        position = Base64Url.encode(payload, 0, payload.length, buffer, position);
+
+        final byte[] signature = Scratch.get().mac();
+        engine.sign(buffer, 0, position, signature, 0);
+        buffer[position++] = '.';
+        position = Base64Url.encode(signature, 0, engine.macLength(), buffer, position);
+        return new String(buffer, 0, position, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public Object keyGeneration() {
+        return keyRing.entries();
+    }
+
+    @Override
+    public int minimumLength(Map<String, Object> attributes, int maxLength) {
+        final Headers headers = activeHeaders();
+        final int payload = compressionThreshold < 0 ? SessionSize.minimumSize(attributes, maxLength)
+                : Deflate.minimumCompressedSize(SessionSize.minimumSize(attributes, Deflate.maximumUncompressedSize(maxLength)));
+        return headers.plain.length + 1 + Base64Url.encodedLength(payload)
+                + 1 + Base64Url.encodedLength(headers.key.engine.macLength());
+    }
+
+    @Override
+    public Map<String, Object> decode(String value) throws InvalidSessionException {
+        final int firstDot = value.indexOf('.');
+        final int secondDot = firstDot < 0 ? -1 : value.indexOf('.', firstDot + 1);
+        if (firstDot <= 0 || secondDot < 0 || value.indexOf('.', secondDot + 1) >= 0) {
+            throw malformed("session cookie is not a signed JWT");
+        }
+        if (firstDot > MAX_HEADER_LENGTH || !value.startsWith(HEADER_PREFIX)) {
+            throw malformed("session cookie does not start with a JWT header");
+        }
+        if (value.length() - secondDot - 1 < MIN_SIGNATURE_LENGTH) {
+            throw malformed("session cookie signature is too short");
+        }
+
+        // layout of the scratch buffer: the signed ASCII bytes of header and payload, followed by the signature
+        final Scratch scratch = Scratch.get();
+        final byte[] buffer = scratch.first(secondDot + Base64Url.decodedLength(value.length() - secondDot - 1));
+        for (int i = 0; i < secondDot; i++) {
+            final char c = value.charAt(i);
+            if (!Base64Url.isValid(c) && i != firstDot) {
+                throw malformed("session cookie contains invalid characters");
+            }
+            buffer[i] = (byte) c;
+        }
+        final int signatureLength = Base64Url.decode(value, secondDot + 1, value.length(), buffer, secondDot);
+        if (signatureLength < 0) {
+            throw malformed("session cookie signature is not base64url encoded");
+        }
+
+        // the header is read before the signature is checked, as its kid decides which key to verify with
+        final Headers headers = activeHeaders();
+        final KeyRing.Entry key;
+        final boolean compressed;
+        if (regionEquals(buffer, firstDot, headers.plain)) {
+            key = headers.key;
+            compressed = false;
+        } else if (regionEquals(buffer, firstDot, headers.compressed)) {
+            key = headers.key;
+            compressed = true;
+        } else {
+            final Map<String, Object> fields = parseHeader(buffer, firstDot);
+            key = keyFor(fields);
+            compressed = isCompressed(fields);
+        }
+
+        if (signatureLength != key.engine.macLength() || !key.engine.verify(buffer, 0, secondDot, buffer, secondDot, signatureLength)) {
+            throw InvalidSessionException.withoutStackTrace(InvalidSessionException.Reason.SIGNATURE, "session cookie signature does not match");
+        }
+
+        final byte[] payloadBuffer = scratch.second(Base64Url.decodedLength(secondDot - firstDot - 1));
+        final int payloadLength = Base64Url.decode(value, firstDot + 1, secondDot, payloadBuffer, 0);
+        if (payloadLength < 0) {
+            throw new InvalidSessionException("session cookie payload is not base64url encoded");
+        }
+        final byte[] payload = compressed ? Deflate.inflate(payloadBuffer, 0, payloadLength) : Arrays.copyOf(payloadBuffer, payloadLength);
+
+        final Map<String, Object> claims = deserialize(payload);
+        checkTimestamps(claims);
+        return claims;
+    }
+
+    private Headers activeHeaders() {
+        final KeyRing.Entry active = keyRing.active();
+        Headers current = headers;
+        if (current.key != active) {
+            current = new Headers(active);
+            headers = current;
+        }
+        return current;
+    }
+
+    /**
+     * Parse a header, which is stored as ASCII at the start of the buffer, but not written by the active key.
+     * This may be an older key or a header written by jjwt, possibly with a different order or additional fields.
+     */
+    private Map<String, Object> parseHeader(byte[] buffer, int headerLength) {
+        final byte[] header = new byte[Base64Url.decodedLength(headerLength)];
+        final int length = Base64Url.decode(new String(buffer, 0, headerLength, StandardCharsets.ISO_8859_1), 0, headerLength, header, 0);
+        if (length < 0) {
+            throw new InvalidSessionException("session cookie header is not base64url encoded");
+        }
+        return deserialize(Arrays.copyOf(header, length));
+    }
+
+    /**
+     * @return The key referenced by the kid of the header, the key without kid if there is none
+     */
+    private KeyRing.Entry keyFor(Map<String, Object> fields) {
+        final Object kid = fields.getOrDefault("kid", "");
+        final KeyRing.Entry key = kid instanceof String ? keyRing.get((String) kid) : null;
+        if (key == null) {
+            throw new InvalidSessionException(InvalidSessionException.Reason.SIGNATURE, "session cookie is signed with unknown key [" + kid + "]");
+        }
+        if (!key.engine.jwtAlgorithm().equals(fields.get("alg"))) {
+            throw new InvalidSessionException(InvalidSessionException.Reason.SIGNATURE, "session cookie is not signed with " + key.engine.jwtAlgorithm());
+        }
+        return key;
+    }
+
+    /**
+     * @return true if the header specifies DEFLATE compression
+     */
+    private static boolean isCompressed(Map<String, Object> fields) {
+        final Object zip = fields.get("zip");
+        if (zip != null && !"DEF".equals(zip)) {
+            throw new InvalidSessionException("unsupported session cookie compression " + zip);
+        }
+        return zip != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> deserialize(byte[] json) {
+        final Object result;
+        try {
+            result = deserializer.deserialize(json);
+        } catch (DeserializationException | IllegalArgumentException e) {
+            throw new InvalidSessionException("session cookie is not valid JSON", e);
+        }
+        if (!(result instanceof Map)) {
+            throw new InvalidSessionException("session cookie does not contain a JSON object");
+        }
+        return (Map<String, Object>) result;
+    }
+
+    /**
+     * Honour the expiration and not before claims, just like a JWT parser would
+     */
+    private static void checkTimestamps(Map<String, Object> claims) {
+        final long now = System.currentTimeMillis() / 1000;
+        final Object expiration = claims.get("exp");
+        if (expiration instanceof Number && now >= ((Number) expiration).longValue()) {
+            throw new InvalidSessionException(InvalidSessionException.Reason.EXPIRED, "session cookie has expired");
+        }
+        final Object notBefore = claims.get("nbf");
+        if (notBefore instanceof Number && now < ((Number) notBefore).longValue()) {
+            throw new InvalidSessionException(InvalidSessionException.Reason.EXPIRED, "session cookie is not valid yet");
+        }
+    }
+
+    private static InvalidSessionException malformed(String message) {
+        return InvalidSessionException.withoutStackTrace(InvalidSessionException.Reason.MALFORMED, message);
+    }
+
+    private static boolean regionEquals(byte[] buffer, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encodeHeader(String json) {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        final byte[] encoded = new byte[Base64Url.encodedLength(bytes.length)];
+        Base64Url.encode(bytes, 0, bytes.length, encoded, 0);
+        return encoded;
+    }
+
+    /**
+     * The two encoded headers written with a key, the kid is left out for the key without kid
+     */
+    private static final class Headers {
+        private final KeyRing.Entry key;
+        private final byte[] plain;
+        private final byte[] compressed;
+
+        private Headers(KeyRing.Entry key) {
+            this.key = key;
+            // kids are restricted to characters, that need no escaping in JSON
+            final String kid = key.kid.isEmpty() ? "" : "\"kid\":\"" + key.kid + "\",";
+            final String alg = "\"alg\":\"" + key.engine.jwtAlgorithm() + "\"";
+            this.plain = encodeHeader("{" + kid + alg + "}");
+            this.compressed = encodeHeader("{\"zip\":\"DEF\"," + kid + alg + "}");
+        }
+    }
+}
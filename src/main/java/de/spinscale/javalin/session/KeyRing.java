@@ -0,0 +1,166 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The keys used to sign and verify sessions, each one identified by a key id (kid)
+ *
+ * New sessions are always signed with the active key, and the kid of that key is stored in the cookie. When reading a
+ * cookie, its kid selects the key to verify it with, so that sessions signed with an older key stay valid until that
+ * key is removed from the ring. To rotate a key, add the new key as active key and keep the old one for verification.
+ * Sessions are then moved to the new key whenever they are written anyway, so there is no spike in signing work.
+ *
+ * The kid <code>""</code> is special, a key with that kid is written without a kid, and cookies without a kid are
+ * verified with it. This is what a ring created from a single key uses, and keeps cookies written before key rings
+ * existed readable.
+ *
+ * A kid consists of up to 64 letters, digits, dots, dashes and underscores. The keys can be replaced at runtime via
+ * {@link #update(String, Map)}, which affects all handlers immediately.
+ */
+public class KeyRing {
+
+    private static final Pattern KID = Pattern.compile("[A-Za-z0-9._-]{0,64}");
+
+    private volatile Entries entries;
+
+    /**
+     * @param activeKid     The kid of the key used to sign new sessions
+     * @param keys          All keys that are accepted to verify a session by their kid, including the active one
+     */
+    public KeyRing(String activeKid, Map<String, SecretKey> keys) {
+        update(activeKid, keys);
+    }
+
+    /**
+     * @param key           The single key to sign and verify sessions, written without a kid
+     * @return A key ring containing only that key
+     */
+    public static KeyRing of(SecretKey key) {
+        return new KeyRing("", Collections.singletonMap("", key));
+    }
+
+    /**
+     * A key ring, that reloads its keys whenever the file changes
+     *
+     * The file is a properties file, with the <code>active</code> property naming the kid of the active key, and
+     * every other property being a kid with the base64 encoded secret as its value. The file is checked for
+     * modifications at most once per interval. If it cannot be read, the previous keys are kept.
+     *
+     * @param file          The properties file
+     * @param checkInterval How often to check the file for changes
+     * @return A key ring containing the keys of the file
+     */
+    public static KeyRing watch(Path file, Duration checkInterval) {
+        return new FileKeyRing(file, checkInterval);
+    }
+
+    /**
+     * Atomically replace all keys
+     *
+     * @param activeKid     The kid of the key used to sign new sessions
+     * @param keys          All keys that are accepted to verify a session by their kid, including the active one
+     */
+    public void update(String activeKid, Map<String, SecretKey> keys) {
+        if (!keys.containsKey(activeKid)) {
+            throw new IllegalArgumentException("active kid [" + activeKid + "] is not part of the keys " + keys.keySet());
+        }
+        for (String kid : keys.keySet()) {
+            if (!KID.matcher(kid).matches()) {
+                throw new IllegalArgumentException("invalid kid [" + kid + "]");
+            }
+        }
+        final Map<String, Entry> byKid = new HashMap<>();
+        keys.forEach((kid, key) -> byKid.put(kid, new Entry(kid, HmacEngine.forKey(key))));
+        this.entries = new Entries(byKid.get(activeKid), byKid);
+    }
+
+    /**
+     * @return The key to sign new sessions with
+     */
+    Entry active() {
+        return entries().active;
+    }
+
+    /**
+     * @return The key with this kid or null if there is no such key
+     */
+    Entry get(String kid) {
+        return entries().byKid.get(kid);
+    }
+
+    /**
+     * @return The current keys, a new instance is returned after every update
+     */
+    Entries entries() {
+        return entries;
+    }
+
+    /**
+     * A key together with its kid and the engine to sign with it
+     */
+    static final class Entry {
+
+        private static final byte[] ENCRYPTION_KEY_LABEL = "javalin-cookie-session-store aes-256-gcm".getBytes(StandardCharsets.UTF_8);
+
+        final String kid;
+        final byte[] kidBytes;
+        final HmacEngine engine;
+        private volatile SecretKey encryptionKey;
+
+        private Entry(String kid, HmacEngine engine) {
+            this.kid = kid;
+            this.kidBytes = kid.getBytes(StandardCharsets.UTF_8);
+            this.engine = engine;
+        }
+
+        /**
+         * @return An AES-256 key derived from the signing key by signing a fixed label, so that encrypted sessions can
+         * use the same key ring without ever using the signing key for encryption
+         */
+        SecretKey encryptionKey() {
+            SecretKey key = encryptionKey;
+            if (key == null) {
+                final byte[] derived = new byte[engine.macLength()];
+                engine.sign(ENCRYPTION_KEY_LABEL, 0, ENCRYPTION_KEY_LABEL.length, derived, 0);
+                key = new SecretKeySpec(derived, 0, 32, "AES");
+                encryptionKey = key;
+            }
+            return key;
+        }
+    }
+
+    static final class Entries {
+        private final Entry active;
+        private final Map<String, Entry> byKid;
+
+        private Entries(Entry active, Map<String, Entry> byKid) {
+            this.active = active;
+            this.byKid = byKid;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small bounded cache of cookies that have recently been rejected, so that clients replaying the same junk or
+ * tampered cookie are rejected without any decoding or crypto work
+ *
+ * Each cookie is reduced to a 64 bit fingerprint, seeded randomly per instance, which is stored together with the
+ * reason of the rejection in a fixed size table. A colliding entry simply replaces the previous one. The whole cache is
+ * cleared once its time to live has passed, so that a cookie rejected because of a key that was not rolled out yet
+ * gets another chance. Expired sessions are never cached.
+ */
+public class RejectedSessionCache {
+
+    private static final long REASON_MASK = 3;
+
+    // atomic, as plain writes of a long may be split into two halves
+    private final AtomicLongArray entries;
+    private final int mask;
+    private final long seed = new SecureRandom().nextLong();
+    private final long ttlNanos;
+    private volatile long clearAt;
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * @param maxSize   The maximum number of rejected cookies to remember, rounded up to a power of two
+     * @param ttl       The time after which all entries are forgotten
+     */
+    public RejectedSessionCache(int maxSize, Duration ttl) {
+        if (maxSize < 1 || maxSize > 1 << 24) {
+            throw new IllegalArgumentException("maxSize must be between 1 and " + (1 << 24) + ", got " + maxSize);
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive, got " + ttl);
+        }
+        final int size = maxSize == 1 ? 1 : Integer.highestOneBit(maxSize - 1) << 1;
+        this.entries = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.ttlNanos = ttl.toNanos();
+        this.clearAt = System.nanoTime() + ttlNanos;
+    }
+
+    /**
+     * @param cookieValue   The raw value of the cookie
+     * @return The reason the cookie has been rejected before or null if it has not been rejected recently
+     */
+    InvalidSessionException.Reason get(String cookieValue) {
+        clearIfExpired();
+        final long fingerprint = fingerprint(cookieValue);
+        final long entry = entries.get(index(fingerprint));
+        if (entry == 0 || (entry & ~REASON_MASK) != fingerprint) {
+            return null;
+        }
+        hits.increment();
+        return InvalidSessionException.Reason.values()[(int) (entry & REASON_MASK)];
+    }
+
+    /**
+     * @param cookieValue   The raw value of the cookie, that has just been rejected
+     * @param reason        Why the cookie has been rejected
+     */
+    void put(String cookieValue, InvalidSessionException.Reason reason) {
+        if (reason == InvalidSessionException.Reason.EXPIRED) {
+            return;
+        }
+        final long fingerprint = fingerprint(cookieValue);
+        // fingerprint and reason share a single long, so a racing reader sees either the old or the new entry
+        entries.lazySet(index(fingerprint), fingerprint | reason.ordinal());
+    }
+
+    /**
+     * @return The number of cookies that have been rejected from the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    private void clearIfExpired() {
+        final long now = System.nanoTime();
+        if (now - clearAt >= 0) {
+            clearAt = now + ttlNanos;
+            for (int i = 0; i < entries.length(); i++) {
+                entries.lazySet(i, 0);
+            }
+        }
+    }
+
+    private int index(long fingerprint) {
+        // the lowest bits hold the reason, so use the upper ones
+        return (int) (fingerprint >>> 32) & mask;
+    }
+
+    /**
+     * @return A seeded 64 bit hash of the value with the lowest bits cleared to store the reason, never 0
+     */
+    private long fingerprint(String value) {
+        long hash = seed;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        // murmur3 finalizer, so that all bits depend on all characters
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        final long fingerprint = hash & ~REASON_MASK;
+        return fingerprint == 0 ? REASON_MASK + 1 : fingerprint;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.javalin.http.Context;
+
+/**
+ * Called for every rejected session cookie, with the context of the request that sent it
+ *
+ * This is the place to count or rate limit offenders, for example by their IP address. Throwing an exception aborts
+ * the request and is handled by the exception handlers of Javalin.
+ */
+@FunctionalInterface
+public interface RejectedSessionHandler {
+
+    /**
+     * @param ctx           The context of the request with the rejected cookie
+     * @param exception     Why the cookie has been rejected, see {@link InvalidSessionException#reason()}
+     */
+    void onRejected(Context ctx, InvalidSessionException exception);
+}
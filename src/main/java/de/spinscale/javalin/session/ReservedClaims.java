@@ -0,0 +1,67 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Claims written by the plugin itself, which are stored in the cookie but never exposed as session attributes
+ */
+final class ReservedClaims {
+
+    // epoch seconds of the last signing of the cookie
+    static final String ISSUED_AT = "iat";
+    // epoch seconds of the start of the session
+    static final String AUTHENTICATED_AT = "auth_time";
+    // id of the attributes spilled to the server side store
+    static final String SPILL_REFERENCE = "spill";
+    // random id of the session, used to revoke it
+    static final String SESSION_ID = "jti";
+
+    static final String[] NAMES = { ISSUED_AT, AUTHENTICATED_AT, SPILL_REFERENCE, SESSION_ID };
+
+    private ReservedClaims() {}
+
+    static boolean isReserved(String name) {
+        for (String reserved : NAMES) {
+            if (reserved.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The claims without the reserved ones, the same instance if there are none
+     */
+    static Map<String, Object> strip(Map<String, Object> claims) {
+        boolean containsReserved = false;
+        for (String name : NAMES) {
+            containsReserved |= claims.containsKey(name);
+        }
+        if (!containsReserved) {
+            return claims;
+        }
+        final Map<String, Object> attributes = new LinkedHashMap<>(claims);
+        for (String name : NAMES) {
+            attributes.remove(name);
+        }
+        return attributes;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+/**
+ * Decides if the cookie of a session has been revoked, for example because the user logged out everywhere
+ *
+ * The checker is consulted for every verified cookie carrying a session id, including hits of the
+ * {@link VerifiedSessionCache}, so it should return within nanoseconds and must be thread safe.
+ */
+@FunctionalInterface
+public interface RevocationChecker {
+
+    /**
+     * @param sessionId     The id of the session, see {@link CookieSession#id()}
+     * @return true if the session has been revoked and its cookie must be rejected
+     */
+    boolean isRevoked(String sessionId);
+}
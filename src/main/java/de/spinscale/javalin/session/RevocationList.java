@@ -0,0 +1,266 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The ids of revoked sessions, each one kept until the cookies of its session can no longer be valid
+ *
+ * A Bloom filter sits in front of an exact set of revoked ids with their expiry, so that checking a session that
+ * has not been revoked, which is the common case, costs hashing the id and reading a few bits, without locking or
+ * allocating. Only ids passing the filter are looked up in the exact set.
+ *
+ * The filter cannot forget ids, so it is rebuilt from the exact set whenever it holds more ids than it has been sized
+ * for, which also removes expired ids. A rebuilt filter is filled before it replaces the previous one. Revoking and
+ * checking never block, only rebuilds are serialized.
+ *
+ * To share the list between nodes, one node can write a {@link #snapshot(Path)} to a file, which the other nodes
+ * {@link #load(Path) load}. A file contains one revoked id per line, followed by its expiry in epoch seconds.
+ */
+public class RevocationList implements RevocationChecker {
+
+    // about one percent false positives at ten bits per id
+    private static final int BITS_PER_ID = 10;
+    private static final int HASHES = 7;
+    private static final int MAX_BITS = 1 << 30;
+
+    private final int expectedRevocations;
+    private final long retentionSeconds;
+    // revoked ids and the epoch seconds after which they can be forgotten
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private volatile BloomFilter filter;
+
+    /**
+     * @param expectedRevocations   The number of ids the filter is initially sized for, it grows if needed
+     * @param retention             How long to keep a revoked id, at least the idle timeout of the session, or the
+     *                              absolute timeout if there is no idle timeout
+     */
+    public RevocationList(int expectedRevocations, Duration retention) {
+        if (expectedRevocations < 1) {
+            throw new IllegalArgumentException("expectedRevocations must be positive, got " + expectedRevocations);
+        }
+        if (retention.getSeconds() < 1) {
+            throw new IllegalArgumentException("retention must be at least one second, got " + retention);
+        }
+        this.expectedRevocations = expectedRevocations;
+        this.retentionSeconds = retention.getSeconds();
+        this.filter = new BloomFilter(expectedRevocations);
+    }
+
+    /**
+     * Revoke a session for the configured retention
+     *
+     * @param sessionId     The id of the session, see {@link CookieSession#id()}
+     */
+    public void revoke(String sessionId) {
+        revoke(sessionId, SessionExpiry.now() + retentionSeconds);
+    }
+
+    /**
+     * @param sessionId     The id of the session, see {@link CookieSession#id()}
+     * @param expiresAt     When the cookies of the session can no longer be valid, after which the id is forgotten
+     */
+    public void revoke(String sessionId, Instant expiresAt) {
+        revoke(sessionId, expiresAt.getEpochSecond());
+    }
+
+    @Override
+    public boolean isRevoked(String sessionId) {
+        if (!filter.mightContain(hash(sessionId))) {
+            return false;
+        }
+        final Long expiresAt = revoked.get(sessionId);
+        return expiresAt != null && expiresAt > SessionExpiry.now();
+    }
+
+    /**
+     * @return The number of revoked ids, including expired ones that have not been removed yet
+     */
+    public int size() {
+        return revoked.size();
+    }
+
+    /**
+     * Remove expired ids and rebuild the filter, which otherwise only happens once the filter is full
+     */
+    public synchronized void purgeExpired() {
+        final long now = SessionExpiry.now();
+        revoked.values().removeIf(expiresAt -> expiresAt <= now);
+        final BloomFilter rebuilt = new BloomFilter(Math.max(expectedRevocations, revoked.size() * 2));
+        for (String sessionId : revoked.keySet()) {
+            rebuilt.add(hash(sessionId));
+        }
+        // only publish the complete filter, an empty one would let readers accept revoked sessions
+        filter = rebuilt;
+        // a concurrent revocation may have added its id to the previous filter only, but it is in the exact set by now
+        for (String sessionId : revoked.keySet()) {
+            final long hash = hash(sessionId);
+            if (!rebuilt.mightContain(hash)) {
+                rebuilt.add(hash);
+            }
+        }
+    }
+
+    /**
+     * Add all ids of a file written by {@link #snapshot(Path)} to this list, skipping expired ones
+     *
+     * @return The number of ids read from the file
+     */
+    public int load(Path file) {
+        final long now = SessionExpiry.now();
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final int separator = line.indexOf(' ');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("invalid revocation entry [" + line + "] in " + file);
+                }
+                final long expiresAt = Long.parseLong(line.substring(separator + 1).trim());
+                if (expiresAt > now) {
+                    revoked.merge(line.substring(0, separator), expiresAt, Math::max);
+                }
+                count++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read revoked sessions from " + file, e);
+        }
+        purgeExpired();
+        return count;
+    }
+
+    /**
+     * Write all ids that have not expired to the file, replacing it atomically so that readers never see a partial file
+     */
+    public void snapshot(Path file) {
+        final long now = SessionExpiry.now();
+        try {
+            final Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : revoked.entrySet()) {
+                    if (entry.getValue() > now) {
+                        writer.write(entry.getKey());
+                        writer.write(' ');
+                        writer.write(Long.toString(entry.getValue()));
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot write revoked sessions to " + file, e);
+        }
+    }
+
+    private void revoke(String sessionId, long expiresAt) {
+        // the exact set is updated first, so that a reader passing the filter always finds the id
+        revoked.merge(sessionId, expiresAt, Math::max);
+        final BloomFilter current = filter;
+        current.add(hash(sessionId));
+        if (current.isFull()) {
+            rebuild(current);
+        }
+    }
+
+    private synchronized void rebuild(BloomFilter full) {
+        // concurrent revocations may all see the full filter, but only the first one has to rebuild it
+        if (filter == full) {
+            purgeExpired();
+        }
+    }
+
+    /**
+     * FNV-1a followed by the murmur3 finalizer, so that all bits depend on all characters
+     */
+    private static long hash(String value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class BloomFilter {
+
+        private final AtomicLongArray words;
+        private final int bitMask;
+        private final int capacity;
+        private final AtomicInteger added = new AtomicInteger();
+
+        private BloomFilter(int capacity) {
+            final long wanted = Math.min(MAX_BITS, Math.max(64, (long) capacity * BITS_PER_ID));
+            final int bits = Long.bitCount(wanted) == 1 ? (int) wanted : Integer.highestOneBit((int) wanted) << 1;
+            this.words = new AtomicLongArray(bits >>> 6);
+            this.bitMask = bits - 1;
+            this.capacity = capacity;
+        }
+
+        private void add(long hash) {
+            final int first = (int) hash;
+            final int second = (int) (hash >>> 32);
+            for (int i = 0; i < HASHES; i++) {
+                final int bit = (first + i * second) & bitMask;
+                final long mask = 1L << bit;
+                long word;
+                do {
+                    word = words.get(bit >>> 6);
+                } while ((word & mask) == 0 && !words.compareAndSet(bit >>> 6, word, word | mask));
+            }
+            added.incrementAndGet();
+        }
+
+        private boolean mightContain(long hash) {
+            final int first = (int) hash;
+            final int second = (int) (hash >>> 32);
+            for (int i = 0; i < HASHES; i++) {
+                final int bit = (first + i * second) & bitMask;
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isFull() {
+            return added.get() > capacity;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.util.Map;
+
+/**
+ * Converts the attributes of a {@link SessionSchema} to their stored representation before encoding, and decoded
+ * attributes back to their types, so that verified session caches hold typed values
+ */
+class SchemaSessionCodec implements SessionCodec {
+
+    private final SessionCodec codec;
+    private final SessionSchema schema;
+
+    SchemaSessionCodec(SessionCodec codec, SessionSchema schema) {
+        this.codec = codec;
+        this.schema = schema;
+    }
+
+    @Override
+    public String encode(Map<String, Object> attributes) {
+        return codec.encode(schema.encode(attributes));
+    }
+
+    @Override
+    public Object keyGeneration() {
+        return codec.keyGeneration();
+    }
+
+    @Override
+    public int minimumLength(Map<String, Object> attributes, int maxLength) {
+        return codec.minimumLength(schema.encode(attributes), maxLength);
+    }
+
+    @Override
+    public Map<String, Object> decode(String value) throws InvalidSessionException {
+        return schema.decode(codec.decode(value));
+    }
+}
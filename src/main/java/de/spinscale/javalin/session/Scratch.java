@@ -0,0 +1,103 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Per thread buffers for encoding, signing and decoding sessions
+ *
+ * The buffers grow when needed and are reused by every request on the same thread. A buffer is only valid until the
+ * next call that uses scratch space, so callers must copy anything they want to keep. Buffers bigger than
+ * {@link #MAX_RETAINED_SIZE} are only kept until the next call that fits into a retained buffer again, so that a
+ * single oversized session does not inflate the memory of a thread for good.
+ */
+final class Scratch {
+
+    static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private byte[] first = new byte[4096];
+    private byte[] second = new byte[4096];
+    private final byte[] mac = new byte[64];
+    private ByteBuffer firstBuffer = ByteBuffer.wrap(first);
+
+    private Scratch() {}
+
+    static Scratch get() {
+        return SCRATCH.get();
+    }
+
+    byte[] first(int size) {
+        if (needsResize(first.length, size)) {
+            first = new byte[newLength(first.length, size)];
+            firstBuffer = ByteBuffer.wrap(first);
+        }
+        return first;
+    }
+
+    byte[] second(int size) {
+        if (needsResize(second.length, size)) {
+            second = new byte[newLength(second.length, size)];
+        }
+        return second;
+    }
+
+    /**
+     * Grow the second buffer, keeping its current content
+     */
+    byte[] growSecond(int size) {
+        if (second.length < size) {
+            second = Arrays.copyOf(second, newLength(second.length, size));
+        }
+        return second;
+    }
+
+    /**
+     * @return A buffer big enough for any HMAC
+     */
+    byte[] mac() {
+        return mac;
+    }
+
+    /**
+     * @return true if the buffer is too small, or oversized while the requested size fits into a retained buffer
+     */
+    private static boolean needsResize(int length, int size) {
+        return length < size || (length > MAX_RETAINED_SIZE && size <= MAX_RETAINED_SIZE);
+    }
+
+    private static int newLength(int length, int size) {
+        if (size > MAX_RETAINED_SIZE) {
+            // released again by the next call of a regular size
+            return size;
+        }
+        return Math.min(MAX_RETAINED_SIZE, Math.max(size, Math.min(length, MAX_RETAINED_SIZE / 2) * 2));
+    }
+
+    /**
+     * @return A byte buffer backed by the first scratch array, limited to the specified range
+     */
+    ByteBuffer firstBuffer(int offset, int length) {
+        firstBuffer.limit(offset + length);
+        firstBuffer.position(offset);
+        return firstBuffer;
+    }
+}
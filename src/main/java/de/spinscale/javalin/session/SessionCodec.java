@@ -0,0 +1,62 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.util.Map;
+
+/**
+ * Converts the session attributes into a signed cookie value and back
+ *
+ * The default codec writes a JWT. Implementations must be thread safe, as a single instance is used for all requests.
+ */
+public interface SessionCodec {
+
+    /**
+     * @param attributes    The attributes to store in the cookie, never empty
+     * @return The signed value of the cookie
+     */
+    String encode(Map<String, Object> attributes);
+
+    /**
+     * @param value         The value of the cookie, as written by {@link #encode(Map)}
+     * @return The attributes stored in the cookie
+     * @throws InvalidSessionException if the value is malformed or has not been signed with the expected key
+     */
+    Map<String, Object> decode(String value) throws InvalidSessionException;
+
+    /**
+     * Used to skip encoding sessions, that cannot fit into the cookie anyway
+     *
+     * @param attributes    The attributes to store in the cookie
+     * @param maxLength     The maximum length of the cookie, the calculation may stop once it is exceeded
+     * @return A lower bound of the length of the encoded value, 0 if unknown
+     */
+    default int minimumLength(Map<String, Object> attributes, int maxLength) {
+        return 0;
+    }
+
+    /**
+     * Sessions verified by the {@link VerifiedSessionCache} are discarded once this changes, so that removing a key
+     * takes effect right away instead of after the time to live of the cache
+     *
+     * @return An object that is replaced whenever the keys used to verify sessions change, null if they never change
+     */
+    default Object keyGeneration() {
+        return null;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.javalin.http.Context;
+
+import javax.servlet.http.Cookie;
+
+/**
+ * Reads and writes the session cookie, which may be split into several chunks
+ *
+ * A value that does not fit into a single cookie, by default 4kb, is split across the cookies <code>NAME.0</code>,
+ * <code>NAME.1</code> and so on, up to the configured number of chunks. A value that fits is always stored in the
+ * single cookie <code>NAME</code>. Chunks or cookies that are not needed anymore are expired.
+ *
+ * As browsers limit the size of the name, the value and the attributes of a cookie together (RFC 6265 section 6.1),
+ * the name of every cookie and some room for its attributes is subtracted from the maximum cookie size.
+ *
+ * The {@link CookieSession} of the cookie is stored in its own request attribute, so that several cookies, each one
+ * holding a group of attributes, can be read and written independently.
+ */
+class SessionCookie {
+
+    static final int MAX_COOKIE_SIZE = 4096;
+    // room for attributes like Path, Max-Age, Secure, HttpOnly and SameSite
+    static final int ATTRIBUTE_HEADROOM = 64;
+
+    private final String name;
+    private final int maxChunks;
+    private final String sessionAttribute;
+    private final int maxCookieSize;
+    private final int maxLength;
+
+    SessionCookie(String name, int maxChunks) {
+        this(name, maxChunks, CookieSession.ATTRIBUTE, MAX_COOKIE_SIZE);
+    }
+
+    /**
+     * @param maxCookieSize     The maximum length of a single cookie or chunk, including its name and attributes
+     */
+    SessionCookie(String name, int maxChunks, String sessionAttribute, int maxCookieSize) {
+        if (maxChunks < 1) {
+            throw new IllegalArgumentException("maxChunks must be at least 1, got " + maxChunks);
+        }
+        if (maxCookieSize < 1) {
+            throw new IllegalArgumentException("maxCookieSize must be positive, got " + maxCookieSize);
+        }
+        this.name = name;
+        this.maxChunks = maxChunks;
+        this.sessionAttribute = sessionAttribute;
+        this.maxCookieSize = maxCookieSize;
+        this.maxLength = maxChunks == 1 ? capacity(name) : chunkedCapacity();
+        if (capacity(maxChunks == 1 ? name : chunkName(maxChunks - 1)) < 1) {
+            throw new IllegalArgumentException("maxCookieSize " + maxCookieSize + " leaves no room for the value of cookie " + name);
+        }
+    }
+
+    /**
+     * @return The name of the request attribute holding the {@link CookieSession} of this cookie
+     */
+    String sessionAttribute() {
+        return sessionAttribute;
+    }
+
+    /**
+     * @return The maximum length of a value, that can be stored
+     */
+    int maxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return The maximum length of a value, that is accepted when reading. This is more lenient than
+     *         {@link #maxLength()}, so that cookies written before the cookie size was lowered or before names and
+     *         attributes counted towards it are still read.
+     */
+    int maxReadLength() {
+        return Math.max(maxCookieSize, MAX_COOKIE_SIZE) * maxChunks;
+    }
+
+    /**
+     * @return The value of the cookie, reassembled from its chunks, or null if there is no such cookie
+     * @throws InvalidSessionException if only some of the chunks were sent
+     */
+    String read(Context ctx) throws InvalidSessionException {
+        if (maxChunks == 1) {
+            return ctx.cookie(name);
+        }
+
+        final Cookie[] cookies = ctx.req.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+
+        String[] chunks = null;
+        int chunkCount = 0;
+        for (Cookie cookie : cookies) {
+            final String cookieName = cookie.getName();
+            if (cookieName.length() == name.length() && cookieName.equals(name)) {
+                return cookie.getValue();
+            }
+            final int index = chunkIndex(cookieName);
+            if (index >= 0) {
+                if (chunks == null) {
+                    chunks = new String[maxChunks];
+                }
+                chunks[index] = cookie.getValue();
+                chunkCount = Math.max(chunkCount, index + 1);
+            }
+        }
+
+        if (chunks == null) {
+            return null;
+        }
+        int length = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            if (chunks[i] == null) {
+                throw new InvalidSessionException("session cookie chunk " + i + " of " + chunkCount + " is missing");
+            }
+            length += chunks[i].length();
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < chunkCount; i++) {
+            sb.append(chunks[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Store the value, using as many chunks as needed
+     *
+     * @return false if the value is too big to be stored, nothing has been written in that case
+     */
+    boolean write(Context ctx, String value) {
+        if (value.length() > maxLength) {
+            return false;
+        }
+
+        final int existingChunks = existingChunks(ctx);
+        if (value.length() <= capacity(name)) {
+            ctx.cookie(name, value);
+            expireChunks(ctx, 0, existingChunks);
+            return true;
+        }
+
+        int chunk = 0;
+        for (int start = 0; start < value.length(); chunk++) {
+            final String chunkName = chunkName(chunk);
+            final int end = Math.min(value.length(), start + capacity(chunkName));
+            ctx.cookie(chunkName, value.substring(start, end));
+            start = end;
+        }
+        expireChunks(ctx, chunk, existingChunks);
+        if (ctx.cookie(name) != null) {
+            ctx.removeCookie(name);
+        }
+        return true;
+    }
+
+    /**
+     * Expire the cookie and all of its chunks sent with this request
+     */
+    void remove(Context ctx) {
+        ctx.removeCookie(name);
+        expireChunks(ctx, 0, existingChunks(ctx));
+    }
+
+    private void expireChunks(Context ctx, int from, int to) {
+        for (int i = from; i < to; i++) {
+            ctx.removeCookie(chunkName(i));
+        }
+    }
+
+    /**
+     * @return The number of chunks sent with the request, counting up to the highest index
+     */
+    private int existingChunks(Context ctx) {
+        if (maxChunks == 1) {
+            return 0;
+        }
+        final Cookie[] cookies = ctx.req.getCookies();
+        if (cookies == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Cookie cookie : cookies) {
+            count = Math.max(count, chunkIndex(cookie.getName()) + 1);
+        }
+        return count;
+    }
+
+    /**
+     * @return The index of the chunk if the cookie name is <code>NAME.index</code> within the chunk limit, -1 otherwise
+     */
+    private int chunkIndex(String cookieName) {
+        final int length = name.length();
+        if (cookieName.length() <= length + 1 || cookieName.charAt(length) != '.' || !cookieName.startsWith(name)) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = length + 1; i < cookieName.length(); i++) {
+            final char c = cookieName.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+            if (index >= maxChunks) {
+                return -1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return The maximum length of the value of a cookie with this name
+     */
+    private int capacity(String cookieName) {
+        return maxCookieSize - ATTRIBUTE_HEADROOM - cookieName.length() - 1;
+    }
+
+    private int chunkedCapacity() {
+        int capacity = 0;
+        for (int i = 0; i < maxChunks; i++) {
+            capacity += Math.max(0, capacity(chunkName(i)));
+        }
+        return capacity;
+    }
+
+    private String chunkName(int index) {
+        return name + "." + index;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Idle and absolute timeouts of a session, stored as reserved claims in the cookie
+ *
+ * Every written cookie carries the time it has been signed as <code>iat</code> and the time the session has been
+ * started as <code>auth_time</code>, both in epoch seconds. A cookie whose issue time is older than the idle timeout,
+ * or whose session is older than the absolute timeout, is rejected. A cookie missing the claim required by a
+ * configured timeout is rejected as well, so sessions written before enabling timeouts do not live forever.
+ *
+ * To slide the idle timeout without signing on every request, an unchanged session is only written again once its
+ * issue time is older than a fraction of the idle timeout.
+ */
+class SessionExpiry {
+
+    private final long idleTimeoutSeconds;
+    private final long absoluteTimeoutSeconds;
+    private final long refreshAfterSeconds;
+
+    /**
+     * @param idleTimeout       The maximum time between two writes of the cookie, null for no idle timeout
+     * @param absoluteTimeout   The maximum lifetime of a session, null for no absolute timeout
+     * @param refreshFraction   The fraction of the idle timeout after which an unchanged session is written again
+     */
+    SessionExpiry(Duration idleTimeout, Duration absoluteTimeout, double refreshFraction) {
+        if (refreshFraction < 0 || refreshFraction > 1) {
+            throw new IllegalArgumentException("refresh fraction must be between 0 and 1, got " + refreshFraction);
+        }
+        this.idleTimeoutSeconds = seconds(idleTimeout);
+        this.absoluteTimeoutSeconds = seconds(absoluteTimeout);
+        this.refreshAfterSeconds = (long) (idleTimeoutSeconds * refreshFraction);
+    }
+
+    static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * @param claims    All claims decoded from the cookie
+     * @throws InvalidSessionException if the session has timed out
+     */
+    void check(Map<String, Object> claims, long now) throws InvalidSessionException {
+        if (idleTimeoutSeconds > 0 && now - issuedAt(claims) >= idleTimeoutSeconds) {
+            throw new InvalidSessionException(InvalidSessionException.Reason.EXPIRED, "session cookie has been idle for too long");
+        }
+        if (absoluteTimeoutSeconds > 0 && now - authenticatedAt(claims) >= absoluteTimeoutSeconds) {
+            throw new InvalidSessionException(InvalidSessionException.Reason.EXPIRED, "session has exceeded its maximum lifetime");
+        }
+    }
+
+    /**
+     * @return true if an unchanged session should be written again, to slide the idle timeout
+     */
+    boolean needsRefresh(CookieSession session, long now) {
+        final long issuedAt = session.issuedAt();
+        return idleTimeoutSeconds > 0 && issuedAt > 0 && now - issuedAt >= refreshAfterSeconds;
+    }
+
+    /**
+     * Add the reserved claims to the attributes about to be written, keeping the start of an existing session
+     */
+    void stamp(Map<String, Object> attributes, CookieSession session, long now) {
+        final long authenticatedAt = session == null ? 0 : session.authenticatedAt();
+        attributes.put(ReservedClaims.ISSUED_AT, now);
+        attributes.put(ReservedClaims.AUTHENTICATED_AT, authenticatedAt > 0 ? authenticatedAt : now);
+    }
+
+    static long issuedAt(Map<String, Object> claims) {
+        return epochSeconds(claims.get(ReservedClaims.ISSUED_AT));
+    }
+
+    static long authenticatedAt(Map<String, Object> claims) {
+        return epochSeconds(claims.get(ReservedClaims.AUTHENTICATED_AT));
+    }
+
+    private static long epochSeconds(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static long seconds(Duration duration) {
+        if (duration == null) {
+            return 0;
+        }
+        if (duration.getSeconds() < 1) {
+            throw new IllegalArgumentException("timeout must be at least one second, got " + duration);
+        }
+        return duration.getSeconds();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.util.function.Function;
+
+/**
+ * A typed session attribute, registered in a {@link SessionSchema}
+ *
+ * The key converts its value into a value the codec can store, like a string, a number or a boolean, and back. A value
+ * that cannot be converted back, for example because the type of the key changed since the cookie was written, is
+ * treated as missing. The same applies to a value of another type set by the application under the name of the key.
+ *
+ * @param <T> The type of the value
+ */
+public final class SessionKey<T> {
+
+    private final String name;
+    private final Class<T> type;
+    private final Function<T, Object> encoder;
+    private final Function<Object, T> decoder;
+    private final T defaultValue;
+
+    private SessionKey(String name, Class<T> type, Function<T, Object> encoder, Function<Object, T> decoder, T defaultValue) {
+        this.name = name;
+        this.type = type;
+        this.encoder = encoder;
+        this.decoder = decoder;
+        this.defaultValue = defaultValue;
+    }
+
+    public static SessionKey<String> ofString(String name) {
+        return of(name, String.class, value -> value, value -> value instanceof String ? (String) value : null);
+    }
+
+    public static SessionKey<Long> ofLong(String name) {
+        return of(name, Long.class, value -> value, value -> value instanceof Number ? ((Number) value).longValue() : null);
+    }
+
+    public static SessionKey<Integer> ofInteger(String name) {
+        return of(name, Integer.class, value -> value, value -> value instanceof Number ? ((Number) value).intValue() : null);
+    }
+
+    public static SessionKey<Double> ofDouble(String name) {
+        return of(name, Double.class, value -> value, value -> value instanceof Number ? ((Number) value).doubleValue() : null);
+    }
+
+    public static SessionKey<Boolean> ofBoolean(String name) {
+        return of(name, Boolean.class, value -> value, value -> value instanceof Boolean ? (Boolean) value : null);
+    }
+
+    /**
+     * @param name      The name of the attribute
+     * @param type      The type of the value
+     * @param encoder   Converts a value into a string, number or boolean
+     * @param decoder   Converts the stored value back, returns null or throws if it cannot be converted
+     */
+    public static <T> SessionKey<T> of(String name, Class<T> type, Function<T, Object> encoder, Function<Object, T> decoder) {
+        return new SessionKey<>(name, type, encoder, decoder, null);
+    }
+
+    /**
+     * @param defaultValue  The value returned by {@link CookieSession#get(SessionKey)} if the attribute is not set
+     * @return A copy of this key with the default value
+     */
+    public SessionKey<T> withDefault(T defaultValue) {
+        return new SessionKey<>(name, type, encoder, decoder, defaultValue);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public T defaultValue() {
+        return defaultValue;
+    }
+
+    /**
+     * @return The value if it has the type of the key, otherwise the decoded value or null if it cannot be converted
+     */
+    T cast(Object value) {
+        return type.isInstance(value) ? type.cast(value) : decode(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    Object encode(Object value) {
+        return encoder.apply((T) value);
+    }
+
+    /**
+     * @return The decoded value or null if it cannot be converted
+     */
+    T decode(Object value) {
+        try {
+            return decoder.apply(value);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.util.List;
+
+/**
+ * Gets notified about the processing of session cookies, to collect metrics
+ *
+ * All methods are called on the request thread and default to doing nothing, so implementations only override what
+ * they need. They should return quickly, as they run for every request in scope of the plugin.
+ */
+public interface SessionListener {
+
+    SessionListener NOOP = new SessionListener() {};
+
+    /**
+     * A cookie has been verified and decoded, this includes cache hits
+     *
+     * @param cookieLength  The length of the cookie value, including all chunks
+     * @param nanos         The time spent reading, verifying and decoding the cookie
+     */
+    default void onVerified(int cookieLength, long nanos) {}
+
+    /**
+     * A cookie has been rejected and is going to be removed
+     *
+     * @param exception     Why the cookie has been rejected, see {@link InvalidSessionException#reason()}
+     * @param nanos         The time spent until the cookie has been rejected
+     */
+    default void onRejected(InvalidSessionException exception, long nanos) {}
+
+    /**
+     * A session has been signed and written to the response
+     *
+     * @param cookieLength  The length of the cookie value, including all chunks
+     * @param nanos         The time spent serializing and signing the session
+     */
+    default void onWritten(int cookieLength, long nanos) {}
+
+    /**
+     * A session was too big to be stored, so the cookie is removed instead
+     *
+     * @param cookieLength  The length of the cookie value that could not be stored, or a lower bound of it, if the
+     *                      session has not been signed, because it could not fit anyway
+     */
+    default void onTooBig(int cookieLength) {}
+
+    /**
+     * Attributes have been dropped, so that the session fits into the cookie, or because their names are reserved
+     *
+     * @param names         The names of the dropped attributes, lowest priority first
+     */
+    default void onAttributesDropped(List<String> names) {}
+
+    /**
+     * The cookie has been removed, because the session is empty
+     */
+    default void onCleared() {}
+}
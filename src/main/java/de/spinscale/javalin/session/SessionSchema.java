@@ -0,0 +1,110 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The fixed set of {@link SessionKey}s stored in the session
+ *
+ * With a schema the write handler looks up the registered attributes by name instead of scanning all request
+ * attributes, and the values of a decoded cookie are converted to the type of their key once, right after verifying
+ * the cookie. Attributes without a key are neither written nor read, so the work per request depends on the number of
+ * keys only.
+ */
+public final class SessionSchema {
+
+    private final SessionKey<?>[] keys;
+
+    /**
+     * @param keys      The keys of all attributes stored in the session, with unique names
+     */
+    public SessionSchema(SessionKey<?> ... keys) {
+        final Set<String> names = new HashSet<>();
+        for (SessionKey<?> key : keys) {
+            if (!names.add(key.name())) {
+                throw new IllegalArgumentException("duplicate session key [" + key.name() + "]");
+            }
+            if (ReservedClaims.isReserved(key.name()) || key.name().startsWith(CookieSessionStorePlugin.INTERNAL_ATTRIBUTE_PREFIX)) {
+                throw new IllegalArgumentException("session key [" + key.name() + "] is reserved");
+            }
+        }
+        this.keys = keys.clone();
+    }
+
+    /**
+     * @return The names of all keys matching the filter
+     */
+    String[] names(Predicate<String> filter) {
+        final List<String> names = new ArrayList<>(keys.length);
+        for (SessionKey<?> key : keys) {
+            if (filter.test(key.name())) {
+                names.add(key.name());
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * @return The stored representation of all registered attributes and the reserved claims
+     */
+    Map<String, Object> encode(Map<String, Object> attributes) {
+        final Map<String, Object> claims = new LinkedHashMap<>();
+        for (SessionKey<?> key : keys) {
+            final Object value = attributes.get(key.name());
+            if (value != null) {
+                claims.put(key.name(), key.encode(value));
+            }
+        }
+        copyReserved(attributes, claims);
+        return claims;
+    }
+
+    /**
+     * @return The typed values of all registered attributes, that could be converted, and the reserved claims
+     */
+    Map<String, Object> decode(Map<String, Object> claims) {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        for (SessionKey<?> key : keys) {
+            final Object value = claims.get(key.name());
+            if (value != null) {
+                final Object decoded = key.decode(value);
+                if (decoded != null) {
+                    attributes.put(key.name(), decoded);
+                }
+            }
+        }
+        copyReserved(claims, attributes);
+        return attributes;
+    }
+
+    private static void copyReserved(Map<String, Object> from, Map<String, Object> to) {
+        for (String name : ReservedClaims.NAMES) {
+            final Object value = from.get(name);
+            if (value != null) {
+                to.put(name, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Decides if the session handlers should run for a request
+ *
+ * A request is in scope if it matches any include rule (or there are none), does not match any exclude rule,
+ * uses one of the configured HTTP methods (or there are none) and matches the custom predicate.
+ *
+ * Path rules are either exact paths like {@code /health}, prefixes ending in a single wildcard like {@code /static/*}
+ * or globs like {@code /api/v?/public/**}, where {@code *} matches within a path segment, {@code **} across
+ * segments and {@code ?} a single character. Exact paths and prefixes are stored in a trie, so that matching costs a
+ * single walk over the request path.
+ */
+class SessionScope {
+
+    private final PathRules includes = new PathRules();
+    private final PathRules excludes = new PathRules();
+    private final Set<String> methods = new HashSet<>();
+    private Predicate<Context> predicate;
+
+    void include(String pattern) {
+        includes.add(pattern);
+    }
+
+    void exclude(String pattern) {
+        excludes.add(pattern);
+    }
+
+    void methods(HandlerType ... handlerTypes) {
+        for (HandlerType handlerType : handlerTypes) {
+            methods.add(handlerType.name());
+        }
+    }
+
+    void predicate(Predicate<Context> predicate) {
+        this.predicate = this.predicate == null ? predicate : this.predicate.and(predicate);
+    }
+
+    /**
+     * @return true if no rules have been configured and every request is in scope
+     */
+    boolean matchesAll() {
+        return includes.isEmpty() && excludes.isEmpty() && methods.isEmpty() && predicate == null;
+    }
+
+    boolean matches(Context ctx) {
+        if (!methods.isEmpty() && !methods.contains(ctx.method())) {
+            return false;
+        }
+        final String path = ctx.path();
+        if (!includes.isEmpty() && !includes.matches(path)) {
+            return false;
+        }
+        if (excludes.matches(path)) {
+            return false;
+        }
+        return predicate == null || predicate.test(ctx);
+    }
+
+    private static final class PathRules {
+
+        private final Node root = new Node();
+        private final List<Pattern> globs = new ArrayList<>();
+        private boolean empty = true;
+
+        private void add(String pattern) {
+            empty = false;
+            final int firstWildcard = indexOfWildcard(pattern);
+            if (firstWildcard == -1) {
+                root.insert(pattern).exact = true;
+            } else if (firstWildcard == pattern.length() - 1 && pattern.charAt(firstWildcard) == '*') {
+                root.insert(pattern.substring(0, firstWildcard)).prefix = true;
+            } else {
+                globs.add(compileGlob(pattern));
+            }
+        }
+
+        private boolean isEmpty() {
+            return empty;
+        }
+
+        private boolean matches(String path) {
+            if (empty) {
+                return false;
+            }
+            Node node = root;
+            for (int i = 0; i < path.length(); i++) {
+                if (node.prefix) {
+                    return true;
+                }
+                node = node.children.get(path.charAt(i));
+                if (node == null) {
+                    break;
+                }
+            }
+            if (node != null && (node.prefix || node.exact)) {
+                return true;
+            }
+            for (Pattern glob : globs) {
+                if (glob.matcher(path).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int indexOfWildcard(String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                final char c = pattern.charAt(i);
+                if (c == '*' || c == '?') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static Pattern compileGlob(String glob) {
+            final StringBuilder regex = new StringBuilder();
+            int literalStart = 0;
+            for (int i = 0; i < glob.length(); i++) {
+                final char c = glob.charAt(i);
+                if (c != '*' && c != '?') {
+                    continue;
+                }
+                if (literalStart < i) {
+                    regex.append(Pattern.quote(glob.substring(literalStart, i)));
+                }
+                if (c == '?') {
+                    regex.append("[^/]");
+                } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append("[^/]*");
+                }
+                literalStart = i + 1;
+            }
+            if (literalStart < glob.length()) {
+                regex.append(Pattern.quote(glob.substring(literalStart)));
+            }
+            return Pattern.compile(regex.toString());
+        }
+    }
+
+    private static final class Node {
+
+        private final Map<Character, Node> children = new HashMap<>();
+        private boolean exact;
+        private boolean prefix;
+
+        private Node insert(String path) {
+            Node node = this;
+            for (int i = 0; i < path.length(); i++) {
+                node = node.children.computeIfAbsent(path.charAt(i), c -> new Node());
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+/**
+ * The collaborators shared by the read and write handlers of all session cookies, built by the plugin
+ *
+ * Everything but the codec is optional, a feature is disabled if its collaborator is not set.
+ */
+final class SessionSettings {
+
+    private final SessionCodec codec;
+    private SessionListener listener = SessionListener.NOOP;
+    private SessionExpiry expiry;
+    private SessionSpill spill;
+    private boolean lazy;
+    private VerifiedSessionCache verifiedSessionCache;
+    private RejectedSessionCache rejectedSessionCache;
+    private RejectedSessionHandler rejectedSessionHandler;
+    private RevocationChecker revocationChecker;
+    private boolean sessionIds;
+    private SessionSchema schema;
+    private AttributePriorities attributePriorities;
+
+    SessionSettings(SessionCodec codec) {
+        this.codec = codec;
+    }
+
+    SessionSettings withListener(SessionListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    SessionSettings withExpiry(SessionExpiry expiry) {
+        this.expiry = expiry;
+        return this;
+    }
+
+    SessionSettings withSpill(SessionSpill spill) {
+        this.spill = spill;
+        return this;
+    }
+
+    /**
+     * Only read and decode the cookie on first access of the session
+     */
+    SessionSettings withLazy(boolean lazy) {
+        this.lazy = lazy;
+        return this;
+    }
+
+    SessionSettings withVerifiedSessionCache(VerifiedSessionCache verifiedSessionCache) {
+        this.verifiedSessionCache = verifiedSessionCache;
+        return this;
+    }
+
+    SessionSettings withRejectedSessionCache(RejectedSessionCache rejectedSessionCache) {
+        this.rejectedSessionCache = rejectedSessionCache;
+        return this;
+    }
+
+    SessionSettings withRejectedSessionHandler(RejectedSessionHandler rejectedSessionHandler) {
+        this.rejectedSessionHandler = rejectedSessionHandler;
+        return this;
+    }
+
+    SessionSettings withRevocationChecker(RevocationChecker revocationChecker) {
+        this.revocationChecker = revocationChecker;
+        return this;
+    }
+
+    /**
+     * Store the id of the main session in every written cookie, so that it can be revoked
+     */
+    SessionSettings withSessionIds(boolean sessionIds) {
+        this.sessionIds = sessionIds;
+        return this;
+    }
+
+    SessionSettings withSchema(SessionSchema schema) {
+        this.schema = schema;
+        return this;
+    }
+
+    SessionSettings withAttributePriorities(AttributePriorities attributePriorities) {
+        this.attributePriorities = attributePriorities;
+        return this;
+    }
+
+    SessionCodec codec() {
+        return codec;
+    }
+
+    SessionListener listener() {
+        return listener;
+    }
+
+    SessionExpiry expiry() {
+        return expiry;
+    }
+
+    SessionSpill spill() {
+        return spill;
+    }
+
+    boolean lazy() {
+        return lazy;
+    }
+
+    VerifiedSessionCache verifiedSessionCache() {
+        return verifiedSessionCache;
+    }
+
+    RejectedSessionCache rejectedSessionCache() {
+        return rejectedSessionCache;
+    }
+
+    RejectedSessionHandler rejectedSessionHandler() {
+        return rejectedSessionHandler;
+    }
+
+    RevocationChecker revocationChecker() {
+        return revocationChecker;
+    }
+
+    boolean sessionIds() {
+        return sessionIds;
+    }
+
+    SessionSchema schema() {
+        return schema;
+    }
+
+    AttributePriorities attributePriorities() {
+        return attributePriorities;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Computes a lower bound of the serialized size of attributes, valid for the JSON and the binary format
+ *
+ * Every character of a string or key takes at least one byte, as does every other value. The bound is computed
+ * before serializing, so that sessions which cannot fit into the cookie are not serialized and signed at all.
+ */
+final class SessionSize {
+
+    private SessionSize() {}
+
+    /**
+     * @param limit     Counting stops once the size exceeds this limit
+     * @return A lower bound of the serialized size of the attributes
+     */
+    static int minimumSize(Map<?, ?> attributes, int limit) {
+        int size = 0;
+        for (Map.Entry<?, ?> entry : attributes.entrySet()) {
+            size += String.valueOf(entry.getKey()).length() + minimumSize(entry.getValue(), limit - size);
+            if (size > limit) {
+                return size;
+            }
+        }
+        return size;
+    }
+
+    private static int minimumSize(Object value, int limit) {
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length();
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if (value instanceof Map) {
+            return minimumSize((Map<?, ?>) value, limit);
+        } else if (value instanceof Collection) {
+            int size = 0;
+            for (Object element : (Collection<?>) value) {
+                size += minimumSize(element, limit - size);
+                if (size > limit) {
+                    return size;
+                }
+            }
+            return size;
+        }
+        return 1;
+    }
+}
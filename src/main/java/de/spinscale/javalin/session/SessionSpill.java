@@ -0,0 +1,153 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Moves attributes, that should not or cannot be stored in the cookie, to a {@link SessionStore}
+ *
+ * Flagged attributes are always moved. If the cookie would be too big, all attributes but small ones are moved as
+ * well, and if that still does not suffice, all of them. The cookie then carries a random reference to the stored
+ * attributes as a reserved claim. A session without moved attributes never touches the store.
+ *
+ * Splitting only decides which attributes are moved, they are written by {@link #store(Split)} once the cookie
+ * referencing them is written, so that a cookie that is rejected as too big does not leave an orphaned entry.
+ */
+class SessionSpill {
+
+    // attributes with a smaller estimated size stay in the cookie when spilling because of its size
+    static final int SMALL_ATTRIBUTE_SIZE = 64;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SessionStore store;
+    private final SessionCodec codec;
+    private final Predicate<String> flagged;
+
+    /**
+     * @param flagged   Attributes that are always moved to the store
+     */
+    SessionSpill(SessionStore store, SessionCodec codec, Predicate<String> flagged) {
+        this.store = store;
+        this.codec = codec;
+        this.flagged = flagged;
+    }
+
+    /**
+     * @param reference The reference stored in the cookie
+     * @return The attributes moved to the store, empty if they have been evicted
+     * @throws InvalidSessionException if the stored attributes have been tampered with
+     */
+    Map<String, Object> load(String reference) throws InvalidSessionException {
+        final byte[] data = store.get(reference);
+        if (data == null) {
+            return Collections.emptyMap();
+        }
+        return ReservedClaims.strip(codec.decode(new String(data, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Decide which attributes do not go into the cookie, without touching the store
+     *
+     * @param attributes    All attributes of the session
+     * @param reference     The reference of the existing cookie or null
+     * @param oversized     true to move all attributes but small ones as well, or all of them if there are no big ones
+     * @return The split attributes, the ones for the cookie include the reference if attributes are moved
+     */
+    Split split(Map<String, Object> attributes, String reference, boolean oversized) {
+        final Map<String, Object> cookieAttributes = new LinkedHashMap<>();
+        final Map<String, Object> spilled = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            if (flagged.test(entry.getKey()) || oversized && estimatedSize(entry) >= SMALL_ATTRIBUTE_SIZE) {
+                spilled.put(entry.getKey(), entry.getValue());
+            } else {
+                cookieAttributes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (oversized && spilled.isEmpty()) {
+            spilled.putAll(cookieAttributes);
+            cookieAttributes.clear();
+        }
+
+        if (spilled.isEmpty()) {
+            return new Split(cookieAttributes, spilled, null, reference);
+        }
+        final String id = reference == null ? newReference() : reference;
+        cookieAttributes.put(ReservedClaims.SPILL_REFERENCE, id);
+        return new Split(cookieAttributes, spilled, id, reference);
+    }
+
+    /**
+     * Write the moved attributes once the cookie referencing them has been written, or remove the entry of the
+     * existing cookie if nothing is moved anymore
+     */
+    void store(Split split) {
+        if (split.spilled.isEmpty()) {
+            if (split.previousReference != null) {
+                store.remove(split.previousReference);
+            }
+            return;
+        }
+        store.put(split.reference, codec.encode(split.spilled).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param reference The reference of a session, that does not exist anymore
+     */
+    void remove(String reference) {
+        store.remove(reference);
+    }
+
+    private static int estimatedSize(Map.Entry<String, Object> entry) {
+        final Object value = entry.getValue();
+        final int valueSize = value instanceof byte[] ? ((byte[]) value).length * 4 / 3 : String.valueOf(value).length();
+        return entry.getKey().length() + valueSize;
+    }
+
+    /**
+     * The attributes of a session split into those stored in the cookie and those moved to the store
+     */
+    static final class Split {
+        // mutable, so that attributes can still be dropped before encoding
+        final Map<String, Object> cookieAttributes;
+        private final Map<String, Object> spilled;
+        private final String reference;
+        private final String previousReference;
+
+        private Split(Map<String, Object> cookieAttributes, Map<String, Object> spilled, String reference,
+                      String previousReference) {
+            this.cookieAttributes = cookieAttributes;
+            this.spilled = spilled;
+            this.reference = reference;
+            this.previousReference = previousReference;
+        }
+    }
+
+    private static String newReference() {
+        final byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
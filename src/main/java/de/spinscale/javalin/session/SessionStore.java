@@ -0,0 +1,44 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+/**
+ * A server side store for session attributes, that do not fit into the cookie
+ *
+ * The stored data is the signed output of the session codec, so it is verified when being read again, just like the
+ * cookie. Entries may be evicted at any time, the attributes of an evicted entry are lost.
+ */
+public interface SessionStore {
+
+    /**
+     * @param id        A random id, that is referenced by the cookie
+     * @param data      The signed attributes
+     */
+    void put(String id, byte[] data);
+
+    /**
+     * @param id        The id referenced by the cookie
+     * @return The signed attributes or null if there is no such entry
+     */
+    byte[] get(String id);
+
+    /**
+     * @param id        The id of an entry, that is not referenced anymore
+     */
+    void remove(String id);
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Copies attribute values, so that values modified in place by one request are never seen by another request or
+ * mistaken for the unchanged decoded session
+ *
+ * Strings, boxed primitives, big numbers and enums are immutable and shared. Maps, sets, other collections and byte
+ * arrays are copied recursively, keeping their iteration order. Values of any other type cannot be copied generically
+ * and are shared.
+ */
+final class SessionValues {
+
+    private SessionValues() {}
+
+    /**
+     * @return true if none of the values can be modified in place, so the attributes can be shared without copying
+     */
+    static boolean isImmutable(Map<String, Object> attributes) {
+        for (Object value : attributes.values()) {
+            if (!isImmutable(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A modifiable copy of the attributes, with all maps, collections and byte arrays copied recursively
+     */
+    static Map<String, Object> deepCopy(Map<?, ?> attributes) {
+        final Map<String, Object> copy = new LinkedHashMap<>(Math.max(16, attributes.size() * 2));
+        for (Map.Entry<?, ?> entry : attributes.entrySet()) {
+            copy.put(String.valueOf(entry.getKey()), deepCopy(entry.getValue()));
+        }
+        return copy;
+    }
+
+    static Object deepCopy(Object value) {
+        if (isImmutable(value)) {
+            return value;
+        } else if (value instanceof Map) {
+            final Map<Object, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(entry.getKey(), deepCopy(entry.getValue()));
+            }
+            return copy;
+        } else if (value instanceof Collection) {
+            final Collection<Object> copy = value instanceof Set ? new LinkedHashSet<>() : new ArrayList<>(((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                copy.add(deepCopy(element));
+            }
+            return copy;
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * Like {@link Map#equals(Object)}, but comparing byte arrays by their content, also within maps and lists
+     */
+    static boolean equals(Map<?, ?> attributes, Map<?, ?> other) {
+        if (attributes == other) {
+            return true;
+        }
+        if (other == null || attributes.size() != other.size()) {
+            return false;
+        }
+        for (Map.Entry<?, ?> entry : attributes.entrySet()) {
+            final Object otherValue = other.get(entry.getKey());
+            if (otherValue == null && !other.containsKey(entry.getKey())) {
+                return false;
+            }
+            if (!valueEquals(entry.getValue(), otherValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean valueEquals(Object value, Object other) {
+        if (value instanceof byte[] && other instanceof byte[]) {
+            return Arrays.equals((byte[]) value, (byte[]) other);
+        } else if (value instanceof Map && other instanceof Map) {
+            return equals((Map<?, ?>) value, (Map<?, ?>) other);
+        } else if (value instanceof List && other instanceof List) {
+            final List<?> list = (List<?>) value;
+            final List<?> otherList = (List<?>) other;
+            if (list.size() != otherList.size()) {
+                return false;
+            }
+            for (int i = 0; i < list.size(); i++) {
+                if (!valueEquals(list.get(i), otherList.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return Objects.equals(value, other);
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value == null || value instanceof String || value instanceof Boolean || value instanceof Character
+                || value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+                || value instanceof Double || value instanceof Float || value instanceof BigInteger
+                || value instanceof BigDecimal || value instanceof Enum;
+    }
+}
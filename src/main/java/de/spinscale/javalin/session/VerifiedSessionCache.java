@@ -0,0 +1,311 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache mapping the SHA-256 digest of a raw cookie value to the attributes that have already been verified
+ *
+ * A cache hit skips the base64 decoding, the signature check and the JSON parsing of the cookie.
+ * The cache is split into segments, each one being an access ordered LRU map guarded by its own lock, so that
+ * concurrent requests rarely contend. Entries expire after the configured time to live, or once the <code>exp</code>
+ * or <code>nbf</code> claims of the cookie say so. Entries verified with keys of an older generation, see
+ * {@link SessionCodec#keyGeneration()}, are discarded, so that a removed key is not accepted from the cache.
+ *
+ * Hit, miss and eviction counters are exposed to be able to size the cache. The cache keeps its own deep copy of the
+ * attributes. Sessions holding only strings, numbers and booleans are returned as they are, so such a cache hit does
+ * not allocate. Sessions holding maps, lists or byte arrays are copied on every hit, so that a request modifying such
+ * a value in place does not change the session of later requests.
+ */
+public class VerifiedSessionCache {
+
+    private static final int SEGMENTS = 16;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    // reused for lookups, so that a cache hit does not allocate
+    private static final ThreadLocal<DigestKey> LOOKUP_KEY = ThreadLocal.withInitial(DigestKey::new);
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long ttlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize   The maximum number of cookies to cache, spread across all segments
+     * @param ttl       The time after which an entry is not returned anymore
+     */
+    public VerifiedSessionCache(int maxSize, Duration ttl) {
+        if (maxSize < SEGMENTS) {
+            throw new IllegalArgumentException("maxSize must be at least " + SEGMENTS + ", got " + maxSize);
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive, got " + ttl);
+        }
+        this.ttlNanos = ttl.toNanos();
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxSize / SEGMENTS);
+        }
+    }
+
+    /**
+     * @param cookieValue   The raw value of the cookie
+     * @return The verified attributes or null, if the cookie is not cached or the entry has expired
+     */
+    Map<String, Object> get(String cookieValue) {
+        return get(cookieValue, null);
+    }
+
+    /**
+     * @param cookieValue   The raw value of the cookie
+     * @param keyGeneration The current key generation of the codec
+     * @return The verified attributes or null, if the cookie is not cached, the entry has expired or has been
+     * verified with keys of another generation
+     */
+    Map<String, Object> get(String cookieValue, Object keyGeneration) {
+        final DigestKey digest = digest(cookieValue, LOOKUP_KEY.get());
+        if (digest == null) {
+            misses.increment();
+            return null;
+        }
+        final Segment segment = segmentFor(digest);
+        final Entry entry;
+        synchronized (segment) {
+            entry = segment.get(digest);
+            if (entry != null && (entry.expiresAt - System.nanoTime() < 0 || entry.keyGeneration != keyGeneration
+                    || !entry.isValidNow())) {
+                segment.remove(digest);
+                evictions.increment();
+                misses.increment();
+                return null;
+            }
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.immutable ? entry.attributes : Collections.unmodifiableMap(SessionValues.deepCopy(entry.attributes));
+    }
+
+    /**
+     * Store the verified attributes of a cookie. Only call this after the signature of the cookie has been checked.
+     *
+     * @param cookieValue   The raw value of the cookie
+     * @param attributes    The attributes decoded from the cookie
+     */
+    void put(String cookieValue, Map<String, Object> attributes) {
+        put(cookieValue, attributes, null);
+    }
+
+    /**
+     * Store the verified attributes of a cookie. Only call this after the signature of the cookie has been checked.
+     *
+     * @param cookieValue   The raw value of the cookie
+     * @param attributes    The attributes decoded from the cookie
+     * @param keyGeneration The key generation of the codec, that has been read before verifying the cookie
+     */
+    void put(String cookieValue, Map<String, Object> attributes, Object keyGeneration) {
+        final DigestKey digest = digest(cookieValue, new DigestKey());
+        if (digest == null) {
+            return;
+        }
+        final Entry entry = new Entry(Collections.unmodifiableMap(SessionValues.deepCopy(attributes)),
+                SessionValues.isImmutable(attributes), System.nanoTime() + ttlNanos, keyGeneration,
+                epochSeconds(attributes.get("nbf")), epochSeconds(attributes.get("exp")));
+        final Segment segment = segmentFor(digest);
+        synchronized (segment) {
+            segment.put(digest, entry);
+        }
+    }
+
+    /**
+     * @return The number of lookups that returned verified attributes
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that required a full verification of the cookie
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of entries removed because the cache was full, the entry had expired or its keys changed
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The number of entries currently cached
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(DigestKey digest) {
+        // the digest is uniformly distributed, so any of its bits are good enough to pick a segment
+        return segments[(int) (digest.first >>> 60)];
+    }
+
+    /**
+     * @return The key filled with the digest of the cookie, or null if the cookie contains non ASCII characters
+     */
+    private static DigestKey digest(String cookieValue, DigestKey key) {
+        final int length = cookieValue.length();
+        final byte[] buffer = Scratch.get().first(length);
+        for (int i = 0; i < length; i++) {
+            final char c = cookieValue.charAt(i);
+            if (c >= 128) {
+                return null;
+            }
+            buffer[i] = (byte) c;
+        }
+        final MessageDigest digest = DIGEST.get();
+        digest.update(buffer, 0, length);
+        final byte[] hash = Scratch.get().mac();
+        try {
+            digest.digest(hash, 0, 32);
+        } catch (DigestException e) {
+            throw new IllegalStateException("cannot digest cookie", e);
+        }
+        key.first = readLong(hash, 0);
+        key.second = readLong(hash, 8);
+        key.third = readLong(hash, 16);
+        key.fourth = readLong(hash, 24);
+        return key;
+    }
+
+    private static long epochSeconds(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = value << 8 | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * A SHA-256 digest as four longs, mutable so that a per thread instance can be used for lookups
+     */
+    private static final class DigestKey {
+        private long first;
+        private long second;
+        private long third;
+        private long fourth;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DigestKey)) {
+                return false;
+            }
+            final DigestKey other = (DigestKey) o;
+            return first == other.first && second == other.second && third == other.third && fourth == other.fourth;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (second ^ (second >>> 32));
+        }
+    }
+
+    private static final class Entry {
+        private final Map<String, Object> attributes;
+        // true if the attributes hold no values that can be modified in place, so they do not need to be copied
+        private final boolean immutable;
+        private final long expiresAt;
+        private final Object keyGeneration;
+        // the nbf and exp claims of the cookie in epoch seconds, 0 if not set
+        private final long notBefore;
+        private final long expiration;
+
+        private Entry(Map<String, Object> attributes, boolean immutable, long expiresAt, Object keyGeneration,
+                      long notBefore, long expiration) {
+            this.attributes = attributes;
+            this.immutable = immutable;
+            this.expiresAt = expiresAt;
+            this.keyGeneration = keyGeneration;
+            this.notBefore = notBefore;
+            this.expiration = expiration;
+        }
+
+        /**
+         * @return false if the exp or nbf claims of the cookie, checked by the codec on a full verification, reject it now
+         */
+        private boolean isValidNow() {
+            if (notBefore == 0 && expiration == 0) {
+                return true;
+            }
+            final long now = System.currentTimeMillis() / 1000;
+            return (expiration == 0 || now < expiration) && now >= notBefore;
+        }
+    }
+
+    // never serialized, the map is only extended to evict the eldest entry
+    @SuppressWarnings("serial")
+    private final class Segment extends LinkedHashMap<DigestKey, Entry> {
+
+        private final int maxSize;
+
+        private Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<DigestKey, Entry> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
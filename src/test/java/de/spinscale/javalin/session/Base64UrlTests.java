@@ -0,0 +1,70 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Base64UrlTests {
+
+    private final Random random = new Random();
+
+    @Test
+    void testMatchesJdkEncoding() {
+        for (int length = 0; length < 100; length++) {
+            final byte[] data = new byte[length];
+            random.nextBytes(data);
+            final String expected = Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+
+            final byte[] encoded = new byte[Base64Url.encodedLength(length) + 2];
+            final int end = Base64Url.encode(data, 0, length, encoded, 2);
+
+            assertThat(end - 2).isEqualTo(expected.length());
+            assertThat(new String(encoded, 2, end - 2, StandardCharsets.ISO_8859_1)).isEqualTo(expected);
+
+            final byte[] decoded = new byte[Base64Url.decodedLength(expected.length())];
+            final int decodedLength = Base64Url.decode(expected, 0, expected.length(), decoded, 0);
+            assertThat(Arrays.copyOf(decoded, decodedLength)).isEqualTo(data);
+        }
+    }
+
+    @Test
+    void testDecodeSubstring() {
+        final String value = "xx." + Base64.getUrlEncoder().withoutPadding().encodeToString("session".getBytes()) + ".yy";
+        final byte[] decoded = new byte[16];
+
+        final int length = Base64Url.decode(value, 3, value.length() - 3, decoded, 0);
+
+        assertThat(new String(decoded, 0, length, StandardCharsets.UTF_8)).isEqualTo("session");
+    }
+
+    @Test
+    void testInvalidInput() {
+        final byte[] decoded = new byte[16];
+        assertThat(Base64Url.decode("ab+c", 0, 4, decoded, 0)).isEqualTo(-1);
+        assertThat(Base64Url.decode("ab=c", 0, 4, decoded, 0)).isEqualTo(-1);
+        assertThat(Base64Url.decode("abcde", 0, 5, decoded, 0)).isEqualTo(-1);
+        assertThat(Base64Url.decode("ab\u00e4c", 0, 4, decoded, 0)).isEqualTo(-1);
+    }
+}
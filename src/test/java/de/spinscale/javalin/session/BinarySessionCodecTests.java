@@ -0,0 +1,124 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinarySessionCodecTests {
+
+    private final SecretKey key = Keys.hmacShaKeyFor("some_longer_secret_string_longer_than_256_bits".getBytes());
+    private final BinarySessionCodec codec = new BinarySessionCodec(key, -1);
+
+    @Test
+    void testRoundTripKeepsTypes() {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("string", "Alexander");
+        attributes.put("unicode", "Gr\u00fc\u00dfe \ud83d\ude00");
+        attributes.put("int", -12);
+        attributes.put("long", Long.MAX_VALUE);
+        attributes.put("double", 12.123);
+        attributes.put("true", true);
+        attributes.put("false", false);
+        attributes.put("null", null);
+        attributes.put("list", Arrays.asList(1, "two", 3L));
+        attributes.put("map", Collections.singletonMap("nested", Collections.singletonList(1.5)));
+
+        final Map<String, Object> decoded = codec.decode(codec.encode(attributes));
+
+        assertThat(decoded).isEqualTo(attributes);
+        assertThat(decoded.get("int")).isInstanceOf(Integer.class);
+        assertThat(decoded.get("long")).isInstanceOf(Long.class);
+    }
+
+    @Test
+    void testByteArrays() {
+        final byte[] bytes = new byte[] { 0, 1, -1, 127 };
+        final Map<String, Object> decoded = codec.decode(codec.encode(Collections.singletonMap("bytes", bytes)));
+
+        assertThat((byte[]) decoded.get("bytes")).containsExactly(bytes);
+    }
+
+    @Test
+    void testSmallerThanJwt() {
+        final Map<String, Object> attributes = Collections.singletonMap("session_name", "Alexander");
+
+        final String binary = codec.encode(attributes);
+        final String jwt = new JwtSessionCodec(key, -1).encode(attributes);
+
+        assertThat(binary).doesNotContain(".");
+        assertThat(binary.length()).isLessThan(jwt.length());
+    }
+
+    @Test
+    void testCompression() {
+        final BinarySessionCodec compressingCodec = new BinarySessionCodec(key, 64);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("AB");
+        }
+        final Map<String, Object> attributes = Collections.singletonMap("foo", sb.toString());
+
+        final String value = compressingCodec.encode(attributes);
+
+        assertThat(value.length()).isLessThan(200);
+        // compressed cookies are read regardless of the configured threshold
+        assertThat(codec.decode(value)).isEqualTo(attributes);
+    }
+
+    @Test
+    void testTamperedValue() {
+        final String value = codec.encode(Collections.singletonMap("admin", false));
+        final char[] chars = value.toCharArray();
+        chars[3] = chars[3] == 'A' ? 'B' : 'A';
+
+        assertThatThrownBy(() -> codec.decode(new String(chars))).isInstanceOf(InvalidSessionException.class);
+        assertThatThrownBy(() -> codec.decode("AAAA")).isInstanceOf(InvalidSessionException.class);
+        assertThatThrownBy(() -> codec.decode("!!!")).isInstanceOf(InvalidSessionException.class);
+    }
+
+    @Test
+    void testWrongKey() {
+        final SecretKey anotherKey = Keys.hmacShaKeyFor("some_other_secret_string_longer_than_256_bits".getBytes());
+        final String value = new BinarySessionCodec(anotherKey, -1).encode(Collections.singletonMap("foo", "bar"));
+
+        assertThatThrownBy(() -> codec.decode(value)).isInstanceOf(InvalidSessionException.class);
+    }
+
+    @Test
+    void testReadsExistingJwt() {
+        final String jwt = Jwts.builder().signWith(key).claim("foo", "bar").compact();
+
+        assertThat(codec.decode(jwt)).containsEntry("foo", "bar");
+    }
+
+    @Test
+    void testUnsupportedType() {
+        assertThatThrownBy(() -> codec.encode(Collections.singletonMap("foo", new Object()))).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -25,9 +25,15 @@ import okhttp3.Response;
 import org.junit.jupiter.api.Test;
 
 import javax.crypto.SecretKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class CookieSessionStorePluginTests {
 
@@ -68,6 +74,7 @@ class CookieSessionStorePluginTests {
             try (Response response = httpClient.newCall(new Request.Builder().url(host + "/name").build()).execute()) {
                 assertThat(response.code()).isEqualTo(200);
                 assertThat(response.body().string()).isEqualTo("{ \"name\": \"EMPTY\" }");
+                assertThat(response.header("Set-Cookie")).isNull();
             }
 
             String cookieHeader;
@@ -82,6 +89,8 @@ class CookieSessionStorePluginTests {
             try (Response response = httpClient.newCall(requestWithCookie.build()).execute()) {
                 assertThat(response.code()).isEqualTo(200);
                 assertThat(response.body().string()).isEqualTo("{ \"name\": \"Alexander\" }");
+                // session has only been read, so the cookie must not be written again
+                assertThat(response.header("Set-Cookie")).isNull();
             }
         } finally {
             javalin.stop();
@@ -91,4 +100,430 @@ class CookieSessionStorePluginTests {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void runLazyDecodingIntegrationTest() throws Exception {
+        final Javalin javalin = Javalin.create(config -> config.registerPlugin(new CookieSessionStorePlugin(key, s -> s.startsWith("session_")).withLazyDecoding()));
+
+        javalin.get("/", ctx -> CookieSession.get(ctx).set("session_name", "Alexander"));
+        javalin.get("/name", ctx -> ctx.result(CookieSession.get(ctx).<String>get("session_name")));
+        javalin.get("/health", ctx -> ctx.result("OK"));
+
+        OkHttpClient httpClient = null;
+        javalin.start(0);
+
+        try {
+            httpClient = new OkHttpClient();
+            String host = "http://localhost:" + javalin.port();
+            String cookieHeader;
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/").build()).execute()) {
+                assertThat(response.code()).isEqualTo(200);
+                cookieHeader = response.header("Set-Cookie");
+                assertThat(cookieHeader).contains(CookieSessionStorePlugin.COOKIE_NAME);
+            }
+
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/name").addHeader("Cookie", cookieHeader).build()).execute()) {
+                assertThat(response.body().string()).isEqualTo("Alexander");
+                assertThat(response.header("Set-Cookie")).isNull();
+            }
+
+            // an invalid cookie is never looked at, if the session is not accessed
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/health").addHeader("Cookie", CookieSessionStorePlugin.COOKIE_NAME + "=invalid").build()).execute()) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.header("Set-Cookie")).isNull();
+            }
+        } finally {
+            javalin.stop();
+            if (httpClient != null) {
+                httpClient.dispatcher().executorService().shutdown();
+                httpClient.connectionPool().evictAll();
+            }
+        }
+    }
+
+    @Test
+    void runBinaryFormatIntegrationTest() throws Exception {
+        final Javalin javalin = Javalin.create(config -> config.registerPlugin(new CookieSessionStorePlugin(key, s -> s.startsWith("session_")).withBinaryFormat()));
+
+        javalin.get("/", ctx -> ctx.attribute("session_count", 42L));
+        javalin.get("/count", ctx -> ctx.result(ctx.<Long>attribute("session_count").toString()));
+
+        OkHttpClient httpClient = null;
+        javalin.start(0);
+
+        try {
+            httpClient = new OkHttpClient();
+            String host = "http://localhost:" + javalin.port();
+            String cookieHeader;
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/").build()).execute()) {
+                cookieHeader = response.header("Set-Cookie");
+                assertThat(cookieHeader).contains(CookieSessionStorePlugin.COOKIE_NAME);
+            }
+
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/count").addHeader("Cookie", cookieHeader).build()).execute()) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body().string()).isEqualTo("42");
+            }
+        } finally {
+            javalin.stop();
+            if (httpClient != null) {
+                httpClient.dispatcher().executorService().shutdown();
+                httpClient.connectionPool().evictAll();
+            }
+        }
+    }
+
+    @Test
+    void runExcludedPathIntegrationTest() throws Exception {
+        final Javalin javalin = Javalin.create(config -> config.registerPlugin(new CookieSessionStorePlugin(key, s -> s.startsWith("session_"))
+                .excludePath("/static/*")));
+
+        javalin.get("/", ctx -> ctx.attribute("session_name", "Alexander"));
+        javalin.get("/static/app.js", ctx -> {
+            ctx.attribute("session_name", "Alexander");
+            ctx.result(ctx.attribute("session_name").toString());
+        });
+        javalin.get("/name", ctx -> ctx.result(String.valueOf(ctx.<String>attribute("session_name"))));
+
+        OkHttpClient httpClient = null;
+        javalin.start(0);
+
+        try {
+            httpClient = new OkHttpClient();
+            String host = "http://localhost:" + javalin.port();
+            String cookieHeader;
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/").build()).execute()) {
+                cookieHeader = response.header("Set-Cookie");
+                assertThat(cookieHeader).contains(CookieSessionStorePlugin.COOKIE_NAME);
+            }
+
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/static/app.js").build()).execute()) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.header("Set-Cookie")).isNull();
+            }
+
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/name").addHeader("Cookie", cookieHeader).build()).execute()) {
+                assertThat(response.body().string()).isEqualTo("Alexander");
+            }
+        } finally {
+            javalin.stop();
+            if (httpClient != null) {
+                httpClient.dispatcher().executorService().shutdown();
+                httpClient.connectionPool().evictAll();
+            }
+        }
+    }
+
+    @Test
+    void runAttributeGroupIntegrationTest() throws Exception {
+        final Javalin javalin = Javalin.create(config -> config.registerPlugin(new CookieSessionStorePlugin(key, s -> s.startsWith("session_"))
+                .withAttributeGroup("CSRF_COOKIE", s -> s.equals("session_csrf"))
+                .withLazyDecoding()));
+
+        javalin.get("/login", ctx -> {
+            CookieSession.get(ctx).set("session_name", "Alexander");
+            CookieSession.get(ctx).set("session_csrf", "1");
+        });
+        javalin.get("/csrf", ctx -> CookieSession.get(ctx).set("session_csrf", "2"));
+        javalin.get("/name", ctx -> ctx.result(CookieSession.get(ctx).<String>get("session_name")));
+        javalin.get("/all", ctx -> ctx.result(CookieSession.get(ctx).get("session_name") + ":" + CookieSession.get(ctx).get("session_csrf")));
+
+        OkHttpClient httpClient = null;
+        javalin.start(0);
+
+        try {
+            httpClient = new OkHttpClient();
+            String host = "http://localhost:" + javalin.port();
+            String mainCookie;
+            String csrfCookie;
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/login").build()).execute()) {
+                final List<String> cookies = response.headers("Set-Cookie");
+                assertThat(cookies).hasSize(2);
+                mainCookie = cookie(cookies, CookieSessionStorePlugin.COOKIE_NAME);
+                csrfCookie = cookie(cookies, "CSRF_COOKIE");
+            }
+
+            // only the group that changed is signed and written again
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/csrf")
+                    .addHeader("Cookie", mainCookie + "; " + csrfCookie).build()).execute()) {
+                final List<String> cookies = response.headers("Set-Cookie");
+                assertThat(cookies).hasSize(1);
+                csrfCookie = cookie(cookies, "CSRF_COOKIE");
+            }
+
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/all")
+                    .addHeader("Cookie", mainCookie + "; " + csrfCookie).build()).execute()) {
+                assertThat(response.body().string()).isEqualTo("Alexander:2");
+                assertThat(response.header("Set-Cookie")).isNull();
+            }
+
+            // the group cookie is never verified, if none of its attributes are accessed
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/name")
+                    .addHeader("Cookie", mainCookie + "; CSRF_COOKIE=invalid").build()).execute()) {
+                assertThat(response.body().string()).isEqualTo("Alexander");
+                assertThat(response.header("Set-Cookie")).isNull();
+            }
+        } finally {
+            javalin.stop();
+            if (httpClient != null) {
+                httpClient.dispatcher().executorService().shutdown();
+                httpClient.connectionPool().evictAll();
+            }
+        }
+    }
+
+    @Test
+    void runRevocationIntegrationTest() throws Exception {
+        final RevocationList revocationList = new RevocationList(16, Duration.ofMinutes(30));
+        final Javalin javalin = Javalin.create(config -> config.registerPlugin(new CookieSessionStorePlugin(key, s -> s.startsWith("session_"))
+                .withAttributeGroup("CSRF_COOKIE", s -> s.equals("session_csrf"))
+                .withRevocation(revocationList)));
+
+        javalin.get("/login", ctx -> {
+            ctx.attribute("session_name", "Alexander");
+            ctx.attribute("session_csrf", "1");
+            ctx.result(CookieSession.get(ctx).id());
+        });
+        javalin.get("/all", ctx -> ctx.result(ctx.attribute("session_name") + ":" + ctx.attribute("session_csrf")));
+
+        OkHttpClient httpClient = null;
+        javalin.start(0);
+
+        try {
+            httpClient = new OkHttpClient();
+            String host = "http://localhost:" + javalin.port();
+            String cookieHeader;
+            String sessionId;
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/login").build()).execute()) {
+                final List<String> cookies = response.headers("Set-Cookie");
+                cookieHeader = cookie(cookies, CookieSessionStorePlugin.COOKIE_NAME) + "; " + cookie(cookies, "CSRF_COOKIE");
+                sessionId = response.body().string();
+            }
+
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/all")
+                    .addHeader("Cookie", cookieHeader).build()).execute()) {
+                assertThat(response.body().string()).isEqualTo("Alexander:1");
+            }
+
+            // the attribute group shares the id of the session, so both cookies are removed
+            revocationList.revoke(sessionId);
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/all")
+                    .addHeader("Cookie", cookieHeader).build()).execute()) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body().string()).isEqualTo("null:null");
+                assertThat(response.headers("Set-Cookie")).hasSize(2).allSatisfy(cookie -> assertThat(cookie).contains("Max-Age=0"));
+            }
+        } finally {
+            javalin.stop();
+            if (httpClient != null) {
+                httpClient.dispatcher().executorService().shutdown();
+                httpClient.connectionPool().evictAll();
+            }
+        }
+    }
+
+    @Test
+    void runRevocationOfUnchangedSessionIntegrationTest() throws Exception {
+        final Javalin withoutRevocation = Javalin.create(config -> config.registerPlugin(new CookieSessionStorePlugin(key, s -> s.startsWith("session_"))));
+        withoutRevocation.get("/login", ctx -> ctx.attribute("session_name", "Alexander"));
+        final RevocationList revocationList = new RevocationList(16, Duration.ofMinutes(30));
+        final Javalin javalin = Javalin.create(config -> config.registerPlugin(new CookieSessionStorePlugin(key, s -> s.startsWith("session_"))
+                .withRevocation(revocationList)));
+        javalin.get("/id", ctx -> ctx.result(CookieSession.get(ctx).id()));
+        javalin.get("/name", ctx -> ctx.result(String.valueOf(ctx.<String>attribute("session_name"))));
+
+        OkHttpClient httpClient = null;
+        withoutRevocation.start(0);
+        javalin.start(0);
+
+        try {
+            httpClient = new OkHttpClient();
+            String cookie;
+            // a session written before revocation was enabled has no id yet
+            try (Response response = httpClient.newCall(new Request.Builder().url("http://localhost:" + withoutRevocation.port() + "/login").build()).execute()) {
+                cookie = cookie(response.headers("Set-Cookie"), CookieSessionStorePlugin.COOKIE_NAME);
+            }
+
+            String host = "http://localhost:" + javalin.port();
+            String sessionId;
+            // the session is unchanged, but its new id has to be stored
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/id")
+                    .addHeader("Cookie", cookie).build()).execute()) {
+                sessionId = response.body().string();
+                assertThat(response.headers("Set-Cookie")).hasSize(1);
+                cookie = cookie(response.headers("Set-Cookie"), CookieSessionStorePlugin.COOKIE_NAME);
+            }
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/id")
+                    .addHeader("Cookie", cookie).build()).execute()) {
+                assertThat(response.body().string()).isEqualTo(sessionId);
+                assertThat(response.header("Set-Cookie")).isNull();
+            }
+
+            revocationList.revoke(sessionId);
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/name")
+                    .addHeader("Cookie", cookie).build()).execute()) {
+                assertThat(response.body().string()).isEqualTo("null");
+            }
+        } finally {
+            withoutRevocation.stop();
+            javalin.stop();
+            if (httpClient != null) {
+                httpClient.dispatcher().executorService().shutdown();
+                httpClient.connectionPool().evictAll();
+            }
+        }
+    }
+
+    @Test
+    void runInPlaceModificationIntegrationTest() throws Exception {
+        for (boolean lazy : new boolean[] { false, true }) {
+            final CookieSessionStorePlugin plugin = new CookieSessionStorePlugin(key, s -> s.startsWith("session_"));
+            if (lazy) {
+                plugin.withLazyDecoding();
+            }
+            final Javalin javalin = Javalin.create(config -> config.registerPlugin(plugin));
+            javalin.get("/login", ctx -> CookieSession.get(ctx).set("session_cart", new ArrayList<>(Collections.singletonList("a"))));
+            javalin.get("/add", ctx -> CookieSession.get(ctx).<List<Object>>get("session_cart").add("b"));
+            javalin.get("/cart", ctx -> ctx.result(String.valueOf(CookieSession.get(ctx).<List<Object>>get("session_cart"))));
+
+            OkHttpClient httpClient = null;
+            javalin.start(0);
+
+            try {
+                httpClient = new OkHttpClient();
+                String host = "http://localhost:" + javalin.port();
+                String cookie;
+                try (Response response = httpClient.newCall(new Request.Builder().url(host + "/login").build()).execute()) {
+                    cookie = cookie(response.headers("Set-Cookie"), CookieSessionStorePlugin.COOKIE_NAME);
+                }
+
+                // a list modified in place is a modified session
+                try (Response response = httpClient.newCall(new Request.Builder().url(host + "/add")
+                        .addHeader("Cookie", cookie).build()).execute()) {
+                    assertThat(response.headers("Set-Cookie")).hasSize(1);
+                    cookie = cookie(response.headers("Set-Cookie"), CookieSessionStorePlugin.COOKIE_NAME);
+                }
+
+                try (Response response = httpClient.newCall(new Request.Builder().url(host + "/cart")
+                        .addHeader("Cookie", cookie).build()).execute()) {
+                    assertThat(response.body().string()).isEqualTo("[a, b]");
+                    assertThat(response.header("Set-Cookie")).isNull();
+                }
+            } finally {
+                javalin.stop();
+                if (httpClient != null) {
+                    httpClient.dispatcher().executorService().shutdown();
+                    httpClient.connectionPool().evictAll();
+                }
+            }
+        }
+    }
+
+    @Test
+    void testAttributeGroupNeedsItsOwnCookie() {
+        final CookieSessionStorePlugin plugin = new CookieSessionStorePlugin(key, s -> true).withAttributeGroup("GROUP", s -> true);
+        assertThatThrownBy(() -> plugin.withAttributeGroup("GROUP", s -> true)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> plugin.withAttributeGroup(CookieSessionStorePlugin.COOKIE_NAME, s -> true))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void runAsyncIntegrationTest() throws Exception {
+        final Javalin javalin = Javalin.create(config -> config.registerPlugin(new CookieSessionStorePlugin(key, s -> s.startsWith("session_"))));
+
+        // the attribute is only set once the future completes on another thread, after the endpoint handler returned
+        javalin.get("/", ctx -> ctx.result(CompletableFuture.supplyAsync(() -> {
+            sleep(100);
+            ctx.attribute("session_name", "Alexander");
+            return "OK";
+        })));
+        javalin.get("/name", ctx -> ctx.result(CompletableFuture.supplyAsync(() -> ctx.<String>attribute("session_name"))));
+
+        OkHttpClient httpClient = null;
+        javalin.start(0);
+
+        try {
+            httpClient = new OkHttpClient();
+            String host = "http://localhost:" + javalin.port();
+            String cookieHeader;
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/").build()).execute()) {
+                assertThat(response.body().string()).isEqualTo("OK");
+                cookieHeader = response.header("Set-Cookie");
+                assertThat(cookieHeader).contains(CookieSessionStorePlugin.COOKIE_NAME);
+            }
+
+            try (Response response = httpClient.newCall(new Request.Builder().url(host + "/name").addHeader("Cookie", cookieHeader).build()).execute()) {
+                assertThat(response.body().string()).isEqualTo("Alexander");
+                assertThat(response.header("Set-Cookie")).isNull();
+            }
+        } finally {
+            javalin.stop();
+            if (httpClient != null) {
+                httpClient.dispatcher().executorService().shutdown();
+                httpClient.connectionPool().evictAll();
+            }
+        }
+    }
+
+    @Test
+    void runAsyncLazyDecodingIntegrationTest() throws Exception {
+        final SessionKey<Long> count = SessionKey.ofLong("session_count").withDefault(0L);
+        final Javalin javalin = Javalin.create(config -> config.registerPlugin(new CookieSessionStorePlugin(key, s -> s.startsWith("session_"))
+                .withSchema(new SessionSchema(count))
+                .withLazyDecoding()));
+
+        javalin.get("/increment", ctx -> {
+            final CookieSession session = CookieSession.get(ctx);
+            ctx.result(CompletableFuture.supplyAsync(() -> {
+                final long next = session.get(count) + 1;
+                session.set(count, next);
+                return String.valueOf(next);
+            }));
+        });
+
+        OkHttpClient httpClient = null;
+        javalin.start(0);
+
+        try {
+            httpClient = new OkHttpClient();
+            String host = "http://localhost:" + javalin.port();
+            String cookie = null;
+            for (int i = 1; i <= 3; i++) {
+                final Request.Builder request = new Request.Builder().url(host + "/increment");
+                if (cookie != null) {
+                    request.addHeader("Cookie", cookie);
+                }
+                try (Response response = httpClient.newCall(request.build()).execute()) {
+                    assertThat(response.body().string()).isEqualTo(String.valueOf(i));
+                    cookie = cookie(response.headers("Set-Cookie"), CookieSessionStorePlugin.COOKIE_NAME);
+                }
+            }
+        } finally {
+            javalin.stop();
+            if (httpClient != null) {
+                httpClient.dispatcher().executorService().shutdown();
+                httpClient.connectionPool().evictAll();
+            }
+        }
+    }
+
+    /**
+     * @return The name and value of the named cookie out of a list of Set-Cookie headers
+     */
+    private static String cookie(List<String> setCookieHeaders, String name) {
+        for (String header : setCookieHeaders) {
+            if (header.startsWith(name + "=")) {
+                return header.substring(0, header.indexOf(';'));
+            }
+        }
+        throw new AssertionError("no cookie named [" + name + "] in " + setCookieHeaders);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package de.spinscale.javalin.session;
 
 import io.javalin.http.Context;
+import io.jsonwebtoken.CompressionCodecs;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import org.junit.jupiter.api.Test;
@@ -27,11 +28,22 @@ import javax.crypto.SecretKey;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -41,6 +53,7 @@ public class CookieSessionStoreReadHandlerTests {
     private final String cookieName = "my_cookie";
     private final String secret = "some_longer_secret_string_longer_than_256_bits";
     private final SecretKey key = Keys.hmacShaKeyFor(secret.getBytes());
+    private final SessionCodec codec = new JwtSessionCodec(key, -1);
     private final CookieSessionStoreReadHandler handler = new CookieSessionStoreReadHandler(key, cookieName);
 
     private final HttpServletRequest request = mock(HttpServletRequest.class);
@@ -55,6 +68,18 @@ public class CookieSessionStoreReadHandlerTests {
 
         handler.handle(context);
 
+        verify(request).setAttribute(eq("foo"), eq("bar"));
+        verify(request).setAttribute(eq(CookieSession.ATTRIBUTE), any(CookieSession.class));
+    }
+
+    @Test
+    void testCompressedCookie() throws Exception {
+        final String data = Jwts.builder().signWith(key).claim("foo", "bar").compressWith(CompressionCodecs.DEFLATE).compact();
+        Cookie[] cookies = new Cookie[]{new Cookie(cookieName, data)};
+        when(request.getCookies()).thenReturn(cookies);
+
+        handler.handle(context);
+
         verify(request).setAttribute(eq("foo"), eq("bar"));
     }
 
@@ -75,6 +100,369 @@ public class CookieSessionStoreReadHandlerTests {
         assertThat(capturedCookie.getValue()).isEqualTo("");
     }
 
+    @Test
+    void testRejectedCookieLeavesEmptySession() throws Exception {
+        final SecretKey anotherKey = Keys.hmacShaKeyFor("some_other_secret_string_longer_than_256_bits".getBytes());
+        final String data = Jwts.builder().signWith(anotherKey).claim("foo", "bar").compact();
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, data)});
+
+        handler.handle(context);
+
+        verify(response).setStatus(eq(401));
+        ArgumentCaptor<CookieSession> sessionCaptor = ArgumentCaptor.forClass(CookieSession.class);
+        verify(request).setAttribute(eq(CookieSession.ATTRIBUTE), sessionCaptor.capture());
+        assertThat(sessionCaptor.getValue().snapshot()).isEmpty();
+
+        // the write handler sees the empty session, and does not remove the cookie again
+        when(request.getAttribute(CookieSession.ATTRIBUTE)).thenReturn(sessionCaptor.getValue());
+        when(request.getAttributeNames()).thenReturn(Collections.enumeration(Collections.singletonList(CookieSession.ATTRIBUTE)));
+        new CookieSessionStoreWriteHandler(key, cookieName, s -> true).handle(context);
+        verify(response, times(1)).addCookie(any());
+    }
+
+    @Test
+    void testVerifiedSessionCache() throws Exception {
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMinutes(1));
+        final SessionSettings settings = new SessionSettings(codec).withVerifiedSessionCache(cache);
+        final CookieSessionStoreReadHandler cachingHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        final String data = Jwts.builder().signWith(key).claim("foo", "bar").compact();
+        Cookie[] cookies = new Cookie[]{new Cookie(cookieName, data)};
+        when(request.getCookies()).thenReturn(cookies);
+
+        cachingHandler.handle(context);
+        cachingHandler.handle(context);
+
+        verify(request, times(2)).setAttribute(eq("foo"), eq("bar"));
+        assertThat(cache.misses()).isEqualTo(1);
+        assertThat(cache.hits()).isEqualTo(1);
+    }
+
+    @Test
+    void testRemovedKeyIsNotAcceptedFromCache() throws Exception {
+        final SecretKey otherKey = Keys.hmacShaKeyFor("another_longer_secret_string_longer_than_256_bits".getBytes());
+        final Map<String, SecretKey> keys = new HashMap<>();
+        keys.put("old", key);
+        keys.put("new", otherKey);
+        final KeyRing keyRing = new KeyRing("new", keys);
+        final SessionCodec ringCodec = new JwtSessionCodec(keyRing, -1);
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMinutes(1));
+        final SessionSettings settings = new SessionSettings(ringCodec).withVerifiedSessionCache(cache);
+        final CookieSessionStoreReadHandler cachingHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        keyRing.update("old", keys);
+        final String data = ringCodec.encode(claims("foo", "bar"));
+        keyRing.update("new", keys);
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, data)});
+
+        cachingHandler.handle(context);
+        assertThat(cache.size()).isEqualTo(1);
+        keyRing.update("new", Collections.singletonMap("new", otherKey));
+        cachingHandler.handle(context);
+
+        verify(request, times(1)).setAttribute(eq("foo"), eq("bar"));
+        verify(response).setStatus(eq(401));
+    }
+
+    @Test
+    void testInvalidKeyIsNotCached() throws Exception {
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMinutes(1));
+        final SessionSettings settings = new SessionSettings(codec).withVerifiedSessionCache(cache);
+        final CookieSessionStoreReadHandler cachingHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        final SecretKey anotherKey = Keys.hmacShaKeyFor("some_other_secret_string_longer_than_256_bits".getBytes());
+        final String data = Jwts.builder().signWith(anotherKey).claim("foo", "bar").compact();
+        Cookie[] cookies = new Cookie[]{new Cookie(cookieName, data)};
+        when(request.getCookies()).thenReturn(cookies);
+
+        cachingHandler.handle(context);
+
+        verify(response).setStatus(eq(401));
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    void testLazyDecoding() throws Exception {
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMinutes(1));
+        final SessionSettings settings = new SessionSettings(codec).withVerifiedSessionCache(cache).withLazy(true);
+        final CookieSessionStoreReadHandler lazyHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        final String data = Jwts.builder().signWith(key).claim("foo", "bar").compact();
+        Cookie[] cookies = new Cookie[]{new Cookie(cookieName, data)};
+        when(request.getCookies()).thenReturn(cookies);
+
+        lazyHandler.handle(context);
+
+        ArgumentCaptor<CookieSession> sessionCaptor = ArgumentCaptor.forClass(CookieSession.class);
+        verify(request).setAttribute(eq(CookieSession.ATTRIBUTE), sessionCaptor.capture());
+        verify(request, never()).setAttribute(eq("foo"), any());
+        final CookieSession session = sessionCaptor.getValue();
+        assertThat(session.isLoaded()).isFalse();
+        assertThat(cache.misses()).isEqualTo(0);
+
+        assertThat(session.<String>get("foo")).isEqualTo("bar");
+        assertThat(session.isLoaded()).isTrue();
+    }
+
+    @Test
+    void testLazyDecodingWithInvalidKey() throws Exception {
+        final SessionSettings settings = new SessionSettings(codec).withLazy(true);
+        final CookieSessionStoreReadHandler lazyHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        final SecretKey anotherKey = Keys.hmacShaKeyFor("some_other_secret_string_longer_than_256_bits".getBytes());
+        final String data = Jwts.builder().signWith(anotherKey).claim("foo", "bar").compact();
+        Cookie[] cookies = new Cookie[]{new Cookie(cookieName, data)};
+        when(request.getCookies()).thenReturn(cookies);
+
+        lazyHandler.handle(context);
+
+        ArgumentCaptor<CookieSession> sessionCaptor = ArgumentCaptor.forClass(CookieSession.class);
+        verify(request).setAttribute(eq(CookieSession.ATTRIBUTE), sessionCaptor.capture());
+        final CookieSession session = sessionCaptor.getValue();
+        assertThat(session.<String>get("foo")).isNull();
+        assertThat(session.snapshot()).isNull();
+        verifyZeroInteractions(response);
+    }
+
+    @Test
+    void testChunkedCookie() throws Exception {
+        final SessionSettings settings = new SessionSettings(codec);
+        final CookieSessionStoreReadHandler chunkingHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 3));
+        final String data = Jwts.builder().signWith(key).claim("foo", "bar").compact();
+        final int half = data.length() / 2;
+        Cookie[] cookies = new Cookie[]{new Cookie(cookieName + ".1", data.substring(half)), new Cookie("unrelated", "value"),
+                new Cookie(cookieName + ".0", data.substring(0, half))};
+        when(request.getCookies()).thenReturn(cookies);
+
+        chunkingHandler.handle(context);
+
+        verify(request).setAttribute(eq("foo"), eq("bar"));
+    }
+
+    @Test
+    void testMissingChunk() throws Exception {
+        final SessionSettings settings = new SessionSettings(codec);
+        final CookieSessionStoreReadHandler chunkingHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 3));
+        final String data = Jwts.builder().signWith(key).claim("foo", "bar").compact();
+        Cookie[] cookies = new Cookie[]{new Cookie(cookieName + ".1", data.substring(data.length() / 2))};
+        when(request.getCookies()).thenReturn(cookies);
+
+        chunkingHandler.handle(context);
+
+        verify(response).setStatus(eq(401));
+        ArgumentCaptor<Cookie> cookieCaptor = ArgumentCaptor.forClass(Cookie.class);
+        verify(response, times(3)).addCookie(cookieCaptor.capture());
+        assertThat(cookieCaptor.getAllValues()).extracting(Cookie::getName).containsExactly(cookieName, cookieName + ".0", cookieName + ".1");
+    }
+
+    @Test
+    void testListenerIsNotified() throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        final SessionSettings settings = new SessionSettings(codec).withListener(listener);
+        final CookieSessionStoreReadHandler listeningHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        final String data = Jwts.builder().signWith(key).claim("foo", "bar").compact();
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, data)});
+
+        listeningHandler.handle(context);
+
+        verify(listener).onVerified(eq(data.length()), anyLong());
+        verify(listener, never()).onRejected(any(), anyLong());
+    }
+
+    @Test
+    void testListenerIsNotifiedAboutTampering() throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        final SessionSettings settings = new SessionSettings(codec).withListener(listener);
+        final CookieSessionStoreReadHandler listeningHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        final SecretKey anotherKey = Keys.hmacShaKeyFor("some_other_secret_string_longer_than_256_bits".getBytes());
+        final String tampered = Jwts.builder().signWith(anotherKey).claim("foo", "bar").compact();
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, tampered)});
+        listeningHandler.handle(context);
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, "not_a_jwt")});
+        listeningHandler.handle(context);
+
+        ArgumentCaptor<InvalidSessionException> captor = ArgumentCaptor.forClass(InvalidSessionException.class);
+        verify(listener, times(2)).onRejected(captor.capture(), anyLong());
+        assertThat(captor.getAllValues()).extracting(InvalidSessionException::reason)
+                .containsExactly(InvalidSessionException.Reason.SIGNATURE, InvalidSessionException.Reason.MALFORMED);
+        verify(listener, never()).onVerified(anyInt(), anyLong());
+    }
+
+    @Test
+    void testTimestampsAreNotExposedAsAttributes() throws Exception {
+        final long now = SessionExpiry.now();
+        final String data = codec.encode(claims("foo", "bar", ReservedClaims.ISSUED_AT, now - 60, ReservedClaims.AUTHENTICATED_AT, now - 7200));
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, data)});
+
+        expiringHandler(mock(SessionListener.class)).handle(context);
+
+        verify(request).setAttribute(eq("foo"), eq("bar"));
+        verify(request, never()).setAttribute(eq(ReservedClaims.ISSUED_AT), any());
+        ArgumentCaptor<CookieSession> sessionCaptor = ArgumentCaptor.forClass(CookieSession.class);
+        verify(request).setAttribute(eq(CookieSession.ATTRIBUTE), sessionCaptor.capture());
+        assertThat(sessionCaptor.getValue().issuedAt()).isEqualTo(now - 60);
+        assertThat(sessionCaptor.getValue().authenticatedAt()).isEqualTo(now - 7200);
+    }
+
+    @Test
+    void testIdleSessionIsExpired() throws Exception {
+        final long now = SessionExpiry.now();
+        assertExpired(codec.encode(claims("foo", "bar", ReservedClaims.ISSUED_AT, now - 3600, ReservedClaims.AUTHENTICATED_AT, now - 3600)));
+    }
+
+    @Test
+    void testSessionExceedingItsLifetimeIsExpired() throws Exception {
+        final long now = SessionExpiry.now();
+        assertExpired(codec.encode(claims("foo", "bar", ReservedClaims.ISSUED_AT, now - 60, ReservedClaims.AUTHENTICATED_AT, now - 172800)));
+    }
+
+    @Test
+    void testSessionWithoutTimestampsIsExpired() throws Exception {
+        assertExpired(codec.encode(claims("foo", "bar")));
+    }
+
+    @Test
+    void testRejectedCookiesAreCached() throws Exception {
+        final SessionCodec rejectingCodec = mock(SessionCodec.class);
+        when(rejectingCodec.decode(any())).thenThrow(new InvalidSessionException(InvalidSessionException.Reason.SIGNATURE, "tampered"));
+        final RejectedSessionCache rejectedCache = new RejectedSessionCache(16, Duration.ofMinutes(1));
+        final RejectedSessionHandler rejectedHandler = mock(RejectedSessionHandler.class);
+        final SessionSettings settings = new SessionSettings(rejectingCodec)
+                .withRejectedSessionCache(rejectedCache)
+                .withRejectedSessionHandler(rejectedHandler);
+        final CookieSessionStoreReadHandler rejectingHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, "tampered_cookie")});
+
+        rejectingHandler.handle(context);
+        rejectingHandler.handle(context);
+
+        verify(rejectingCodec, times(1)).decode(any());
+        verify(response, times(2)).setStatus(eq(401));
+        assertThat(rejectedCache.hits()).isEqualTo(1);
+        ArgumentCaptor<InvalidSessionException> captor = ArgumentCaptor.forClass(InvalidSessionException.class);
+        verify(rejectedHandler, times(2)).onRejected(eq(context), captor.capture());
+        assertThat(captor.getAllValues()).extracting(InvalidSessionException::reason)
+                .containsOnly(InvalidSessionException.Reason.SIGNATURE);
+    }
+
+    @Test
+    void testCookieAboveWriteLimitIsStillRead() throws Exception {
+        final SessionCookie sessionCookie = new SessionCookie(cookieName, 1);
+        final String data = codec.encode(claims("foo", repeat('A', 2980)));
+        assertThat(data.length()).isGreaterThan(sessionCookie.maxLength()).isLessThanOrEqualTo(SessionCookie.MAX_COOKIE_SIZE);
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, data)});
+
+        new CookieSessionStoreReadHandler(new SessionSettings(codec), sessionCookie).handle(context);
+
+        verify(response, never()).setStatus(anyInt());
+        verify(request).setAttribute(eq("foo"), eq(repeat('A', 2980)));
+    }
+
+    @Test
+    void testTooLongCookieIsNotDecoded() throws Exception {
+        final SessionCodec neverCalledCodec = mock(SessionCodec.class);
+        final SessionSettings settings = new SessionSettings(neverCalledCodec);
+        final CookieSessionStoreReadHandler rejectingHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        final char[] value = new char[SessionCookie.MAX_COOKIE_SIZE + 1];
+        Arrays.fill(value, 'a');
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, new String(value))});
+
+        rejectingHandler.handle(context);
+
+        verify(response).setStatus(eq(401));
+        verify(neverCalledCodec, never()).decode(any());
+    }
+
+    @Test
+    void testSpilledAttributesAreMergedEagerly() throws Exception {
+        final SessionStore store = new InMemorySessionStore(1024 * 1024);
+        store.put("reference", codec.encode(claims("big", "big_value", "user", "bob")).getBytes(StandardCharsets.UTF_8));
+        final String data = codec.encode(claims("user", "alice", ReservedClaims.SPILL_REFERENCE, "reference"));
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, data)});
+
+        spillingHandler(store, false).handle(context);
+
+        verify(request).setAttribute(eq("big"), eq("big_value"));
+        // the cookie takes precedence
+        verify(request).setAttribute(eq("user"), eq("alice"));
+        verify(request, never()).setAttribute(eq(ReservedClaims.SPILL_REFERENCE), any());
+    }
+
+    @Test
+    void testSpilledAttributesAreLoadedLazilyOnAccess() throws Exception {
+        final SessionStore store = mock(SessionStore.class);
+        when(store.get("reference")).thenReturn(codec.encode(claims("big", "big_value")).getBytes(StandardCharsets.UTF_8));
+        final String data = codec.encode(claims("user", "alice", ReservedClaims.SPILL_REFERENCE, "reference"));
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, data)});
+
+        spillingHandler(store, true).handle(context);
+
+        ArgumentCaptor<CookieSession> sessionCaptor = ArgumentCaptor.forClass(CookieSession.class);
+        verify(request).setAttribute(eq(CookieSession.ATTRIBUTE), sessionCaptor.capture());
+        final CookieSession session = sessionCaptor.getValue();
+        assertThat(session.<String>get("user")).isEqualTo("alice");
+        verifyZeroInteractions(store);
+
+        assertThat(session.<String>get("big")).isEqualTo("big_value");
+        assertThat(session.<String>get(ReservedClaims.SPILL_REFERENCE)).isNull();
+        assertThat(session.spillReference()).isEqualTo("reference");
+        verify(store).get("reference");
+    }
+
+    @Test
+    void testEvictedSpilledAttributesAreEmpty() throws Exception {
+        final SessionStore store = new InMemorySessionStore(1024 * 1024);
+        final String data = codec.encode(claims("user", "alice", ReservedClaims.SPILL_REFERENCE, "reference"));
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, data)});
+
+        spillingHandler(store, false).handle(context);
+
+        verify(request).setAttribute(eq("user"), eq("alice"));
+        verify(response, never()).setStatus(anyInt());
+    }
+
+    @Test
+    void testRevokedSessionIsRemoved() throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        final RevocationList revocationList = new RevocationList(16, Duration.ofMinutes(30));
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMinutes(1));
+        final SessionSettings settings = new SessionSettings(codec)
+                .withVerifiedSessionCache(cache)
+                .withListener(listener)
+                .withRevocationChecker(revocationList);
+        final CookieSessionStoreReadHandler revokingHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, codec.encode(claims("foo", "bar", ReservedClaims.SESSION_ID, "session-1")))});
+
+        revokingHandler.handle(context);
+        verify(request).setAttribute(eq("foo"), eq("bar"));
+        verify(request, never()).setAttribute(eq(ReservedClaims.SESSION_ID), any());
+
+        // the cached session is checked as well
+        revocationList.revoke("session-1");
+        revokingHandler.handle(context);
+
+        verify(request, times(1)).setAttribute(eq("foo"), eq("bar"));
+        verify(response, never()).setStatus(anyInt());
+        ArgumentCaptor<Cookie> cookieCaptor = ArgumentCaptor.forClass(Cookie.class);
+        verify(response).addCookie(cookieCaptor.capture());
+        assertThat(cookieCaptor.getValue().getMaxAge()).isEqualTo(0);
+        ArgumentCaptor<InvalidSessionException> exceptionCaptor = ArgumentCaptor.forClass(InvalidSessionException.class);
+        verify(listener).onRejected(exceptionCaptor.capture(), anyLong());
+        assertThat(exceptionCaptor.getValue().reason()).isEqualTo(InvalidSessionException.Reason.REVOKED);
+        assertThat(cache.hits()).isEqualTo(1);
+    }
+
+    @Test
+    void testLazySessionKeepsItsId() throws Exception {
+        final SessionSettings settings = new SessionSettings(codec)
+                .withLazy(true)
+                .withRevocationChecker(new RevocationList(16, Duration.ofMinutes(30)));
+        final CookieSessionStoreReadHandler lazyHandler = new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, codec.encode(claims("foo", "bar", ReservedClaims.SESSION_ID, "session-1")))});
+
+        lazyHandler.handle(context);
+
+        ArgumentCaptor<CookieSession> sessionCaptor = ArgumentCaptor.forClass(CookieSession.class);
+        verify(request).setAttribute(eq(CookieSession.ATTRIBUTE), sessionCaptor.capture());
+        assertThat(sessionCaptor.getValue().id()).isEqualTo("session-1");
+        assertThat(sessionCaptor.getValue().attributes()).containsOnlyKeys("foo");
+    }
+
     @Test
     void testNonExistingCookie() throws Exception {
         Cookie[] cookies = new Cookie[]{new Cookie("foo", "bar")};
@@ -94,4 +482,54 @@ public class CookieSessionStoreReadHandlerTests {
 
         verifyZeroInteractions(response);
     }
+
+    private void assertExpired(String data) throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        when(request.getCookies()).thenReturn(new Cookie[]{new Cookie(cookieName, data)});
+
+        expiringHandler(listener).handle(context);
+
+        // an expired session is not an error, the cookie is removed and the request continues without a session
+        verify(response, never()).setStatus(anyInt());
+        verify(request, never()).setAttribute(eq("foo"), any());
+        ArgumentCaptor<Cookie> cookieCaptor = ArgumentCaptor.forClass(Cookie.class);
+        verify(response).addCookie(cookieCaptor.capture());
+        assertThat(cookieCaptor.getValue().getMaxAge()).isEqualTo(0);
+        ArgumentCaptor<InvalidSessionException> exceptionCaptor = ArgumentCaptor.forClass(InvalidSessionException.class);
+        verify(listener).onRejected(exceptionCaptor.capture(), anyLong());
+        assertThat(exceptionCaptor.getValue().reason()).isEqualTo(InvalidSessionException.Reason.EXPIRED);
+    }
+
+    /**
+     * A handler with an idle timeout of 30 minutes and an absolute timeout of one day
+     */
+    private CookieSessionStoreReadHandler expiringHandler(SessionListener listener) {
+        final SessionSettings settings = new SessionSettings(codec)
+                .withListener(listener)
+                .withExpiry(new SessionExpiry(Duration.ofMinutes(30), Duration.ofDays(1), 0.5));
+        return new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+    }
+
+    private CookieSessionStoreReadHandler spillingHandler(SessionStore store, boolean lazy) {
+        final SessionSettings settings = new SessionSettings(codec)
+                .withLazy(lazy)
+                .withSpill(new SessionSpill(store, codec, s -> false));
+        return new CookieSessionStoreReadHandler(settings, new SessionCookie(cookieName, 1));
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, Object> claims(Object ... keyValues) {
+        final Map<String, Object> claims = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            claims.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return claims;
+    }
 }
@@ -29,16 +29,30 @@ import javax.crypto.SecretKey;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.intThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 class CookieSessionStoreWriteHandlerTests {
@@ -85,6 +99,21 @@ class CookieSessionStoreWriteHandlerTests {
         assertThat(claims.getBody()).doesNotContainKey("span");
     }
 
+    @Test
+    void testReservedAttributeNamesAreNotStored() throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1)).withListener(listener);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        configureAttributes("foo", "foo_value", "jti", "my-id", "spill", "bar");
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        assertThat(claims).containsOnlyKeys("foo");
+        verify(listener).onAttributesDropped(Arrays.asList("jti", "spill"));
+    }
+
     @Test
     void testNoAttributesConfigured() throws Exception {
         final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(key, cookieName, s -> true);
@@ -99,15 +128,469 @@ class CookieSessionStoreWriteHandlerTests {
     @Test
     void testTooMuchData() throws Exception {
         final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(key, cookieName, s -> true);
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < 3020; i++) { // tipping point is somewhere around here...
-            sb.append('A');
+        // tipping point is somewhere around here...
+        configureAttributes("foo", repeat('A', 3020));
+
+        handler.handle(context);
+
+        verifyCookieHasBeenDeleted();
+    }
+
+    @Test
+    void testChunkedWrite() throws Exception {
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1));
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 3), s -> true);
+        configureAttributes("foo", repeat('A', 5800));
+
+        handler.handle(context);
+
+        ArgumentCaptor<Cookie> cookieCaptor = ArgumentCaptor.forClass(Cookie.class);
+        verify(response, times(2)).addCookie(cookieCaptor.capture());
+        final List<Cookie> cookies = cookieCaptor.getAllValues();
+        assertThat(cookies).extracting(Cookie::getName).containsExactly(cookieName + ".0", cookieName + ".1");
+        assertThat(cookies).allSatisfy(cookie -> assertThat(cookieLength(cookie))
+                .isLessThanOrEqualTo(SessionCookie.MAX_COOKIE_SIZE - SessionCookie.ATTRIBUTE_HEADROOM));
+        assertThat(cookieLength(cookies.get(0))).isEqualTo(SessionCookie.MAX_COOKIE_SIZE - SessionCookie.ATTRIBUTE_HEADROOM);
+        final String jws = cookies.get(0).getValue() + cookies.get(1).getValue();
+        assertThat(Jwts.parser().setSigningKey(key).parseClaimsJws(jws).getBody()).containsEntry("foo", repeat('A', 5800));
+    }
+
+    @Test
+    void testLeftoverChunksAreExpired() throws Exception {
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1));
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 3), s -> true);
+        when(request.getCookies()).thenReturn(new Cookie[]{ new Cookie(cookieName + ".0", "a"), new Cookie(cookieName + ".1", "b") });
+        configureAttributes("foo", "foo_value");
+
+        handler.handle(context);
+
+        ArgumentCaptor<Cookie> cookieCaptor = ArgumentCaptor.forClass(Cookie.class);
+        verify(response, times(3)).addCookie(cookieCaptor.capture());
+        final List<Cookie> cookies = cookieCaptor.getAllValues();
+        assertThat(cookies).extracting(Cookie::getName).containsExactly(cookieName, cookieName + ".0", cookieName + ".1");
+        assertThat(cookies.get(0).getValue()).isNotBlank();
+        assertThat(cookies.get(1).getMaxAge()).isEqualTo(0);
+        assertThat(cookies.get(2).getMaxAge()).isEqualTo(0);
+    }
+
+    @Test
+    void testTooMuchDataForAllChunks() throws Exception {
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1));
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 2), s -> true);
+        configureAttributes("foo", repeat('A', 7000));
+
+        handler.handle(context);
+
+        verifyCookieHasBeenDeleted();
+    }
+
+    @Test
+    void testCompression() throws Exception {
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, 128));
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        final String value = repeat('A', 3020);
+        configureAttributes("foo", value, "bar", 12);
+
+        handler.handle(context);
+
+        Cookie cookie = verifyCookieHasBeenWritten();
+        assertThat(cookie.getValue().length()).isLessThan(512);
+        final Jws<Claims> claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue());
+        assertThat(claims.getHeader().getCompressionAlgorithm()).isEqualTo("DEF");
+        assertThat(claims.getBody()).containsEntry("foo", value).containsEntry("bar", 12);
+    }
+
+    @Test
+    void testCompressionBelowThreshold() throws Exception {
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, 128));
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        configureAttributes("foo", "foo_value");
+
+        handler.handle(context);
+
+        Cookie cookie = verifyCookieHasBeenWritten();
+        final Jws<Claims> claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue());
+        assertThat(claims.getHeader().getCompressionAlgorithm()).isNull();
+        assertThat(claims.getBody()).containsEntry("foo", "foo_value");
+    }
+
+    @Test
+    void testUnchangedSessionIsNotWritten() throws Exception {
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(key, cookieName, s -> true);
+        final Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("foo", "foo_value");
+        snapshot.put("bar", 12);
+        configureAttributes("foo", "foo_value", "bar", 12, CookieSession.ATTRIBUTE, CookieSession.eager(context, snapshot));
+
+        handler.handle(context);
+
+        verify(response, never()).addCookie(any());
+    }
+
+    @Test
+    void testChangedSessionIsWritten() throws Exception {
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(key, cookieName, s -> true);
+        final Map<String, Object> snapshot = Collections.singletonMap("foo", "foo_value");
+        configureAttributes("foo", "another_value", CookieSession.ATTRIBUTE, CookieSession.eager(context, snapshot));
+
+        handler.handle(context);
+
+        Cookie cookie = verifyCookieHasBeenWritten();
+        final Jws<Claims> claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue());
+        assertThat(claims.getBody()).containsEntry("foo", "another_value");
+        assertThat(claims.getBody()).doesNotContainKey(CookieSession.ATTRIBUTE);
+    }
+
+    @Test
+    void testNoCookieAndNoAttributesIsNotWritten() throws Exception {
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(key, cookieName, s -> true);
+        configureAttributes(CookieSession.ATTRIBUTE, CookieSession.eager(context, Collections.emptyMap()));
+
+        handler.handle(context);
+
+        verify(response, never()).addCookie(any());
+    }
+
+    @Test
+    void testUntouchedLazySessionIsNotDecoded() throws Exception {
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(key, cookieName, s -> true);
+        final CookieSession session = CookieSession.lazy(s -> {
+            throw new AssertionError("session must not be decoded");
+        });
+        configureAttributes(CookieSession.ATTRIBUTE, session);
+
+        handler.handle(context);
+
+        verify(response, never()).addCookie(any());
+        assertThat(session.isLoaded()).isFalse();
+    }
+
+    @Test
+    void testModifiedLazySessionIsWritten() throws Exception {
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(key, cookieName, s -> true);
+        final CookieSession session = CookieSession.lazy(s -> Collections.singletonMap("foo", "foo_value"));
+        session.set("bar", "bar_value");
+        configureAttributes(CookieSession.ATTRIBUTE, session);
+
+        handler.handle(context);
+
+        Cookie cookie = verifyCookieHasBeenWritten();
+        final Jws<Claims> claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue());
+        assertThat(claims.getBody()).containsEntry("foo", "foo_value").containsEntry("bar", "bar_value");
+    }
+
+    @Test
+    void testListenerIsNotified() throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1)).withListener(listener);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        configureAttributes("foo", "foo_value");
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        verify(listener).onWritten(eq(cookie.getValue().length()), anyLong());
+        verify(listener, never()).onTooBig(anyInt());
+    }
+
+    @Test
+    void testListenerIsNotifiedAboutDroppedAndClearedSessions() throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1)).withListener(listener);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        configureAttributes("foo", repeat('A', 5000));
+        handler.handle(context);
+        configureAttributes();
+        handler.handle(context);
+
+        verify(listener).onTooBig(intThat(length -> length > SessionCookie.MAX_COOKIE_SIZE));
+        verify(listener).onCleared();
+        verify(listener, never()).onWritten(anyInt(), anyLong());
+    }
+
+    @Test
+    void testNewSessionIsStampedWithTimestamps() throws Exception {
+        final CookieSessionStoreWriteHandler handler = expiringHandler();
+        configureAttributes("foo", "foo_value", CookieSession.ATTRIBUTE, CookieSession.eager(context, Collections.emptyMap()));
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        final long now = SessionExpiry.now();
+        assertThat(claims).containsEntry("foo", "foo_value");
+        assertThat(((Number) claims.get(ReservedClaims.ISSUED_AT)).longValue()).isBetween(now - 1, now);
+        assertThat(((Number) claims.get(ReservedClaims.AUTHENTICATED_AT)).longValue()).isBetween(now - 1, now);
+    }
+
+    @Test
+    void testRecentlyIssuedUnchangedSessionIsNotWritten() throws Exception {
+        final CookieSessionStoreWriteHandler handler = expiringHandler();
+        final CookieSession session = CookieSession.eager(context, Collections.singletonMap("foo", "foo_value"));
+        session.issued(SessionExpiry.now() - 60, SessionExpiry.now() - 7200, null);
+        configureAttributes("foo", "foo_value", CookieSession.ATTRIBUTE, session);
+
+        handler.handle(context);
+
+        verify(response, never()).addCookie(any());
+    }
+
+    @Test
+    void testUnchangedSessionIsRefreshed() throws Exception {
+        final CookieSessionStoreWriteHandler handler = expiringHandler();
+        final long authenticatedAt = SessionExpiry.now() - 7200;
+        final CookieSession session = CookieSession.eager(context, Collections.singletonMap("foo", "foo_value"));
+        session.issued(SessionExpiry.now() - 1000, authenticatedAt, null);
+        configureAttributes("foo", "foo_value", CookieSession.ATTRIBUTE, session);
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        assertThat(claims).containsEntry("foo", "foo_value");
+        assertThat(((Number) claims.get(ReservedClaims.ISSUED_AT)).longValue()).isGreaterThan(SessionExpiry.now() - 10);
+        assertThat(((Number) claims.get(ReservedClaims.AUTHENTICATED_AT)).longValue()).isEqualTo(authenticatedAt);
+    }
+
+    @Test
+    void testOversizedAttributesAreSpilled() throws Exception {
+        final InMemorySessionStore store = new InMemorySessionStore(1024 * 1024);
+        final CookieSessionStoreWriteHandler handler = spillingHandler(store, s -> false);
+        final String big = repeat('A', 5000);
+        configureAttributes("user", "alice", "big", big);
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        assertThat(claims).containsEntry("user", "alice").doesNotContainKey("big");
+        final byte[] stored = store.get((String) claims.get(ReservedClaims.SPILL_REFERENCE));
+        assertThat(stored).isNotNull();
+        final Claims storedClaims = Jwts.parser().setSigningKey(key).parseClaimsJws(new String(stored, StandardCharsets.UTF_8)).getBody();
+        assertThat(storedClaims).containsEntry("big", big).doesNotContainKey("user");
+    }
+
+    @Test
+    void testFlaggedAttributesAreSpilled() throws Exception {
+        final InMemorySessionStore store = new InMemorySessionStore(1024 * 1024);
+        final CookieSessionStoreWriteHandler handler = spillingHandler(store, s -> s.startsWith("secret"));
+        configureAttributes("user", "alice", "secret_token", "abc");
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        assertThat(claims).containsEntry("user", "alice").doesNotContainKey("secret_token");
+        assertThat(store.get((String) claims.get(ReservedClaims.SPILL_REFERENCE))).isNotNull();
+    }
+
+    @Test
+    void testSmallSessionDoesNotTouchStore() throws Exception {
+        final SessionStore store = mock(SessionStore.class);
+        final CookieSessionStoreWriteHandler handler = spillingHandler(store, s -> false);
+        configureAttributes("user", "alice");
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        assertThat(claims).doesNotContainKey(ReservedClaims.SPILL_REFERENCE);
+        verifyZeroInteractions(store);
+    }
+
+    @Test
+    void testClearedSessionRemovesSpilledAttributes() throws Exception {
+        final SessionStore store = mock(SessionStore.class);
+        final CookieSessionStoreWriteHandler handler = spillingHandler(store, s -> false);
+        final CookieSession session = CookieSession.eager(context, Collections.singletonMap("user", "alice"));
+        session.spilled("reference", null);
+        configureAttributes(CookieSession.ATTRIBUTE, session);
+
+        handler.handle(context);
+
+        verifyCookieHasBeenDeleted();
+        verify(store).remove("reference");
+    }
+
+    @Test
+    void testRejectedSessionDoesNotLeaveSpilledAttributes() throws Exception {
+        final SessionStore store = mock(SessionStore.class);
+        final CookieSessionStoreWriteHandler handler = spillingHandler(store, s -> false);
+        final CookieSession session = CookieSession.eager(context, Collections.emptyMap());
+        session.spilled("reference", null);
+        // the big attribute is moved, but the small ones alone still exceed the cookie
+        final List<Object> attributes = new ArrayList<>(Arrays.asList(CookieSession.ATTRIBUTE, session, "big", repeat('A', 5000)));
+        for (int i = 0; i < 150; i++) {
+            attributes.add("small" + i);
+            attributes.add(repeat('B', 40));
+        }
+        configureAttributes(attributes.toArray());
+
+        handler.handle(context);
+
+        verifyCookieHasBeenDeleted();
+        verify(store).remove("reference");
+        verify(store, never()).put(any(), any());
+    }
+
+    @Test
+    void testSchemaOnlyLooksUpRegisteredAttributes() throws Exception {
+        final SessionSchema schema = new SessionSchema(SessionKey.ofString("foo"), SessionKey.ofLong("count"));
+        final SessionCodec codec = new SchemaSessionCodec(new JwtSessionCodec(key, -1), schema);
+        final SessionSettings settings = new SessionSettings(codec).withSchema(schema);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        configureAttributes("foo", "foo_value", "count", 3L, "bar", "bar_value");
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        assertThat(claims).containsEntry("foo", "foo_value").containsKey("count").doesNotContainKey("bar");
+        verify(request, never()).getAttributeNames();
+    }
+
+    @Test
+    void testCommittedResponseIsNotWritten() throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1)).withListener(listener);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        configureAttributes("foo", "foo_value");
+        when(response.isCommitted()).thenReturn(true);
+
+        handler.handle(context);
+
+        verify(response, never()).addCookie(any());
+        verify(listener, never()).onWritten(anyInt(), anyLong());
+    }
+
+    @Test
+    void testLowPriorityAttributesAreDropped() throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        final AttributePriorities priorities = new AttributePriorities();
+        priorities.add(name -> name.startsWith("cache."), 0);
+        priorities.add(name -> name.equals("preferences"), 1);
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1))
+                .withListener(listener)
+                .withAttributePriorities(priorities);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        configureAttributes("user", "alex", "cache.first", repeat('A', 2000), "preferences", repeat('B', 1000),
+                "cache.second", repeat('C', 2000));
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        assertThat(claims).containsOnlyKeys("user", "preferences");
+        verify(listener).onAttributesDropped(Arrays.asList("cache.second", "cache.first"));
+    }
+
+    @Test
+    void testDroppedAttributesAreChosenBeforeSigning() throws Exception {
+        final SessionCodec codec = spy(new JwtSessionCodec(key, -1));
+        final AttributePriorities priorities = new AttributePriorities();
+        priorities.add(name -> name.startsWith("cache."), 0);
+        final SessionSettings settings = new SessionSettings(codec).withAttributePriorities(priorities);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        final List<Object> attributes = new ArrayList<>(Arrays.asList("user", repeat('A', 2000)));
+        for (int i = 0; i < 10; i++) {
+            attributes.add("cache." + i);
+            attributes.add(repeat('C', 300));
         }
-        configureAttributes("foo", sb.toString());
+        configureAttributes(attributes.toArray());
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        assertThat(claims).containsKeys("user", "cache.0");
+        verify(codec, times(1)).encode(any());
+    }
+
+    @Test
+    void testAttributesWithoutPriorityAreNeverDropped() throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        final AttributePriorities priorities = new AttributePriorities();
+        priorities.add(name -> name.equals("preferences"), 0);
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1))
+                .withListener(listener)
+                .withAttributePriorities(priorities);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        configureAttributes("user", repeat('A', 5000), "preferences", "dark");
+
+        handler.handle(context);
+
+        verifyCookieHasBeenDeleted();
+        verify(listener).onTooBig(anyInt());
+        verify(listener, never()).onAttributesDropped(any());
+    }
+
+    @Test
+    void testSessionThatCannotFitIsNotSigned() throws Exception {
+        final SessionListener listener = mock(SessionListener.class);
+        final SessionCodec codec = spy(new JwtSessionCodec(key, -1));
+        final SessionSettings settings = new SessionSettings(codec).withListener(listener);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        configureAttributes("foo", repeat('A', 10_000));
 
         handler.handle(context);
 
         verifyCookieHasBeenDeleted();
+        verify(codec, never()).encode(any());
+        verify(listener).onTooBig(intThat(length -> length > 10_000 * 4 / 3 && length < 15_000));
+    }
+
+    @Test
+    void testConfigurableMaxCookieSize() throws Exception {
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1));
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings,
+                new SessionCookie(cookieName, 3, CookieSession.ATTRIBUTE, 250), s -> true);
+        configureAttributes("foo", repeat('A', 300));
+
+        handler.handle(context);
+
+        ArgumentCaptor<Cookie> cookieCaptor = ArgumentCaptor.forClass(Cookie.class);
+        verify(response, times(3)).addCookie(cookieCaptor.capture());
+        final List<Cookie> cookies = cookieCaptor.getAllValues();
+        assertThat(cookies).extracting(Cookie::getName).containsExactly(cookieName + ".0", cookieName + ".1", cookieName + ".2");
+        assertThat(cookies).allSatisfy(cookie -> assertThat(cookieLength(cookie)).isLessThanOrEqualTo(250 - SessionCookie.ATTRIBUTE_HEADROOM));
+        final String jws = cookies.get(0).getValue() + cookies.get(1).getValue() + cookies.get(2).getValue();
+        assertThat(Jwts.parser().setSigningKey(key).parseClaimsJws(jws).getBody()).containsEntry("foo", repeat('A', 300));
+    }
+
+    @Test
+    void testMaxCookieSizeMustLeaveRoomForValue() {
+        assertThatThrownBy(() -> new SessionCookie(cookieName, 3, CookieSession.ATTRIBUTE, SessionCookie.ATTRIBUTE_HEADROOM + 10))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("leaves no room");
+    }
+
+    @Test
+    void testSessionIdIsWritten() throws Exception {
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1)).withSessionIds(true);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        final CookieSession session = CookieSession.eager(context, Collections.emptyMap());
+        session.issued(0, 0, "session-1");
+        configureAttributes("foo", "foo_value", CookieSession.ATTRIBUTE, session);
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        assertThat(claims).containsEntry("foo", "foo_value").containsEntry(ReservedClaims.SESSION_ID, "session-1");
+    }
+
+    @Test
+    void testNewSessionGetsRandomId() throws Exception {
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1)).withSessionIds(true);
+        final CookieSessionStoreWriteHandler handler = new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+        final CookieSession session = CookieSession.eager(context, Collections.emptyMap());
+        configureAttributes("foo", "foo_value", CookieSession.ATTRIBUTE, session);
+
+        handler.handle(context);
+
+        final Cookie cookie = verifyCookieHasBeenWritten();
+        final Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(cookie.getValue()).getBody();
+        assertThat(claims.getId()).hasSize(22).isEqualTo(session.id());
     }
 
     /**
@@ -132,6 +615,36 @@ class CookieSessionStoreWriteHandlerTests {
         when(request.getAttributeNames()).thenReturn(enumeration);
     }
 
+    /**
+     * A handler with an idle timeout of 30 minutes, refreshing cookies after 15 minutes
+     */
+    private CookieSessionStoreWriteHandler expiringHandler() {
+        final SessionSettings settings = new SessionSettings(new JwtSessionCodec(key, -1))
+                .withExpiry(new SessionExpiry(Duration.ofMinutes(30), Duration.ofDays(1), 0.5));
+        return new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+    }
+
+    private CookieSessionStoreWriteHandler spillingHandler(SessionStore store, Predicate<String> flagged) {
+        final SessionCodec codec = new JwtSessionCodec(key, -1);
+        final SessionSettings settings = new SessionSettings(codec).withSpill(new SessionSpill(store, codec, flagged));
+        return new CookieSessionStoreWriteHandler(settings, new SessionCookie(cookieName, 1), s -> true);
+    }
+
+    /**
+     * @return The length of the name and value of the cookie, the part browsers limit besides the attributes
+     */
+    private static int cookieLength(Cookie cookie) {
+        return cookie.getName().length() + 1 + cookie.getValue().length();
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
     private void verifyCookieHasBeenDeleted() {
         ArgumentCaptor<Cookie> cookieCaptor = ArgumentCaptor.forClass(Cookie.class);
         verify(response).addCookie(cookieCaptor.capture());
@@ -0,0 +1,103 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EncryptedSessionCodecTests {
+
+    private final SecretKey key = Keys.hmacShaKeyFor("some_longer_secret_string_longer_than_256_bits".getBytes());
+    private final EncryptedSessionCodec codec = new EncryptedSessionCodec(KeyRing.of(key));
+
+    @Test
+    void testRoundTripKeepsTypes() {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("string", "Alexander");
+        attributes.put("int", -12);
+        attributes.put("long", Long.MAX_VALUE);
+        attributes.put("true", true);
+        attributes.put("list", Arrays.asList(1, "two", 3L));
+
+        final Map<String, Object> decoded = codec.decode(codec.encode(attributes));
+
+        assertThat(decoded).isEqualTo(attributes);
+        assertThat(decoded.get("long")).isInstanceOf(Long.class);
+    }
+
+    @Test
+    void testContentIsNotVisible() {
+        final Map<String, Object> attributes = Collections.singletonMap("secret_name", "Alexander");
+
+        final String first = codec.encode(attributes);
+        final String second = codec.encode(attributes);
+
+        final String decoded = new String(Base64.getUrlDecoder().decode(first), StandardCharsets.ISO_8859_1);
+        assertThat(decoded).doesNotContain("secret_name").doesNotContain("Alexander");
+        // a new IV is used for every cookie
+        assertThat(first).isNotEqualTo(second);
+    }
+
+    @Test
+    void testTamperedCookieIsRejected() {
+        final String value = codec.encode(Collections.singletonMap("name", "Alexander"));
+        final int index = value.length() / 2;
+        final String tampered = value.substring(0, index) + (value.charAt(index) == 'A' ? 'B' : 'A') + value.substring(index + 1);
+
+        assertThatThrownBy(() -> codec.decode(tampered))
+                .isInstanceOf(InvalidSessionException.class)
+                .satisfies(e -> assertThat(((InvalidSessionException) e).reason()).isEqualTo(InvalidSessionException.Reason.SIGNATURE));
+    }
+
+    @Test
+    void testSignedSessionsCanStillBeRead() {
+        final Map<String, Object> attributes = Collections.singletonMap("name", "Alexander");
+
+        assertThat(codec.decode(new JwtSessionCodec(key, -1).encode(attributes))).isEqualTo(attributes);
+        assertThat(codec.decode(new BinarySessionCodec(key, -1).encode(attributes))).isEqualTo(attributes);
+    }
+
+    @Test
+    void testKeyRotation() {
+        final SecretKey otherKey = Keys.hmacShaKeyFor("some_other_secret_string_longer_than_256_bits".getBytes());
+        final Map<String, SecretKey> keys = new LinkedHashMap<>();
+        keys.put("old", key);
+        keys.put("new", otherKey);
+        final KeyRing keyRing = new KeyRing("old", keys);
+        final EncryptedSessionCodec rotatingCodec = new EncryptedSessionCodec(keyRing);
+        final String oldValue = rotatingCodec.encode(Collections.singletonMap("name", "old"));
+
+        keyRing.update("new", keys);
+        assertThat(rotatingCodec.decode(oldValue)).containsEntry("name", "old");
+        assertThat(rotatingCodec.decode(rotatingCodec.encode(Collections.singletonMap("name", "new")))).containsEntry("name", "new");
+
+        keyRing.update("new", Collections.singletonMap("new", otherKey));
+        assertThatThrownBy(() -> rotatingCodec.decode(oldValue)).isInstanceOf(InvalidSessionException.class);
+    }
+}
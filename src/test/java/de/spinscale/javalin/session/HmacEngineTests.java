@@ -0,0 +1,81 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HmacEngineTests {
+
+    @Test
+    void testAlgorithmDependsOnKeyLength() {
+        assertThat(HmacEngine.forKey(key(32)).jwtAlgorithm()).isEqualTo("HS256");
+        assertThat(HmacEngine.forKey(key(48)).jwtAlgorithm()).isEqualTo("HS384");
+        assertThat(HmacEngine.forKey(key(64)).jwtAlgorithm()).isEqualTo("HS512");
+        assertThatThrownBy(() -> HmacEngine.forKey(new SecretKeySpec(new byte[16], "HmacSHA256")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testSignMatchesMac() throws Exception {
+        final SecretKey key = key(48);
+        final HmacEngine engine = HmacEngine.forKey(key);
+        final byte[] data = "some data to sign".getBytes(StandardCharsets.UTF_8);
+        final Mac mac = Mac.getInstance("HmacSHA384");
+        mac.init(key);
+
+        final byte[] signature = new byte[engine.macLength() + 1];
+        final int end = engine.sign(data, 0, data.length, signature, 1);
+
+        assertThat(end).isEqualTo(signature.length);
+        final byte[] expected = mac.doFinal(data);
+        for (int i = 0; i < expected.length; i++) {
+            assertThat(signature[i + 1]).isEqualTo(expected[i]);
+        }
+        assertThat(engine.verify(data, 0, data.length, signature, 1, engine.macLength())).isTrue();
+    }
+
+    @Test
+    void testVerifyRejectsModifiedSignature() {
+        final HmacEngine engine = HmacEngine.forKey(key(32));
+        final byte[] data = "some data to sign".getBytes(StandardCharsets.UTF_8);
+        final byte[] signature = new byte[engine.macLength()];
+        engine.sign(data, 0, data.length, signature, 0);
+
+        signature[7] ^= 1;
+
+        assertThat(engine.verify(data, 0, data.length, signature, 0, signature.length)).isFalse();
+        assertThat(engine.verify(data, 0, data.length, signature, 0, signature.length - 1)).isFalse();
+    }
+
+    private static SecretKey key(int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return Keys.hmacShaKeyFor(bytes);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InMemorySessionStoreTests {
+
+    @Test
+    void testPutGetAndRemove() {
+        final InMemorySessionStore store = new InMemorySessionStore(100);
+        store.put("a", new byte[10]);
+        store.put("a", new byte[20]);
+
+        assertThat(store.get("a")).hasSize(20);
+        assertThat(store.bytes()).isEqualTo(20);
+
+        store.remove("a");
+        assertThat(store.get("a")).isNull();
+        assertThat(store.bytes()).isEqualTo(0);
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntriesAreEvicted() {
+        final InMemorySessionStore store = new InMemorySessionStore(100);
+        store.put("a", new byte[40]);
+        store.put("b", new byte[40]);
+        store.get("a");
+        store.put("c", new byte[40]);
+
+        assertThat(store.get("a")).isNotNull();
+        assertThat(store.get("b")).isNull();
+        assertThat(store.get("c")).isNotNull();
+        assertThat(store.bytes()).isEqualTo(80);
+        assertThat(store.evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void testMaxBytesMustBePositive() {
+        assertThatThrownBy(() -> new InMemorySessionStore(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+class JwtSessionCodecTests {
+
+    private final SecretKey key = Keys.hmacShaKeyFor("some_longer_secret_string_longer_than_256_bits".getBytes());
+    private final JwtSessionCodec codec = new JwtSessionCodec(key, -1);
+    private final String valid = codec.encode(Collections.singletonMap("session_name", "Alexander"));
+
+    @Test
+    void testJunkIsRejectedAsMalformed() {
+        assertMalformed("not_a_jwt");
+        assertMalformed("a.b.c.d");
+        assertMalformed(valid.substring(1));
+        assertMalformed(valid.substring(0, valid.lastIndexOf('.') + 10));
+        assertMalformed(valid.replaceFirst("\\.", "!."));
+        assertMalformed(valid.replaceFirst("\\.", ".\u00e4"));
+    }
+
+    @Test
+    void testTamperedCookieIsRejectedBySignature() {
+        final int index = valid.indexOf('.') + 2;
+        final String tampered = valid.substring(0, index) + (valid.charAt(index) == 'A' ? 'B' : 'A') + valid.substring(index + 1);
+
+        final InvalidSessionException e = catchThrowableOfType(() -> codec.decode(tampered), InvalidSessionException.class);
+        assertThat(e.reason()).isEqualTo(InvalidSessionException.Reason.SIGNATURE);
+        assertThat(e.getStackTrace()).isEmpty();
+    }
+
+    private void assertMalformed(String value) {
+        final InvalidSessionException e = catchThrowableOfType(() -> codec.decode(value), InvalidSessionException.class);
+        assertThat(e).as(value).isNotNull();
+        assertThat(e.reason()).as(value).isEqualTo(InvalidSessionException.Reason.MALFORMED);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeyRingTests {
+
+    private final SecretKey oldKey = Keys.hmacShaKeyFor("some_longer_secret_string_longer_than_256_bits".getBytes());
+    private final SecretKey newKey = Keys.hmacShaKeyFor("another_secret_string_that_is_longer_than_256_bits".getBytes());
+    private final Map<String, Object> attributes = Collections.singletonMap("session_name", "Alexander");
+
+    @Test
+    void testRotationWithJwtCodec() {
+        final KeyRing keyRing = new KeyRing("1", Collections.singletonMap("1", oldKey));
+        final JwtSessionCodec codec = new JwtSessionCodec(keyRing, -1);
+        final String signedWithOldKey = codec.encode(attributes);
+
+        keyRing.update("2", keys("1", oldKey, "2", newKey));
+        final String signedWithNewKey = codec.encode(attributes);
+
+        assertThat(signedWithNewKey).isNotEqualTo(signedWithOldKey);
+        assertThat(codec.decode(signedWithOldKey)).isEqualTo(attributes);
+        assertThat(codec.decode(signedWithNewKey)).isEqualTo(attributes);
+        assertThat(new JwtSessionCodec(KeyRing.of(newKey), -1).encode(attributes)).isNotEqualTo(signedWithNewKey);
+
+        keyRing.update("2", Collections.singletonMap("2", newKey));
+        assertThatThrownBy(() -> codec.decode(signedWithOldKey)).isInstanceOf(InvalidSessionException.class);
+        assertThat(codec.decode(signedWithNewKey)).isEqualTo(attributes);
+    }
+
+    @Test
+    void testRotationWithBinaryCodec() {
+        final KeyRing keyRing = new KeyRing("1", Collections.singletonMap("1", oldKey));
+        final BinarySessionCodec codec = new BinarySessionCodec(keyRing, 0);
+        final String signedWithOldKey = codec.encode(attributes);
+
+        keyRing.update("2", keys("1", oldKey, "2", newKey));
+        final String signedWithNewKey = codec.encode(attributes);
+
+        assertThat(codec.decode(signedWithOldKey)).isEqualTo(attributes);
+        assertThat(codec.decode(signedWithNewKey)).isEqualTo(attributes);
+
+        keyRing.update("2", Collections.singletonMap("2", newKey));
+        assertThatThrownBy(() -> codec.decode(signedWithOldKey)).isInstanceOf(InvalidSessionException.class);
+        assertThat(codec.decode(signedWithNewKey)).isEqualTo(attributes);
+    }
+
+    @Test
+    void testCookiesWithoutKidUseTheKeyWithoutKid() {
+        final String jwt = new JwtSessionCodec(oldKey, -1).encode(attributes);
+        final String binary = new BinarySessionCodec(oldKey, -1).encode(attributes);
+        final KeyRing keyRing = new KeyRing("2", keys("", oldKey, "2", newKey));
+
+        assertThat(new JwtSessionCodec(keyRing, -1).decode(jwt)).isEqualTo(attributes);
+        assertThat(new BinarySessionCodec(keyRing, -1).decode(binary)).isEqualTo(attributes);
+
+        final KeyRing withoutLegacyKey = new KeyRing("2", Collections.singletonMap("2", newKey));
+        assertThatThrownBy(() -> new JwtSessionCodec(withoutLegacyKey, -1).decode(jwt))
+                .isInstanceOf(InvalidSessionException.class)
+                .hasMessageContaining("unknown key");
+        assertThatThrownBy(() -> new BinarySessionCodec(withoutLegacyKey, -1).decode(binary))
+                .isInstanceOf(InvalidSessionException.class)
+                .hasMessageContaining("unknown key");
+    }
+
+    @Test
+    void testSameKidWithDifferentKeyIsRejected() {
+        final String jwt = new JwtSessionCodec(new KeyRing("1", Collections.singletonMap("1", oldKey)), -1).encode(attributes);
+        final KeyRing keyRing = new KeyRing("1", Collections.singletonMap("1", newKey));
+
+        assertThatThrownBy(() -> new JwtSessionCodec(keyRing, -1).decode(jwt)).isInstanceOf(InvalidSessionException.class);
+    }
+
+    @Test
+    void testInvalidConfiguration() {
+        assertThatThrownBy(() -> new KeyRing("2", Collections.singletonMap("1", oldKey)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("active kid");
+        assertThatThrownBy(() -> new KeyRing("a\"b", Collections.singletonMap("a\"b", oldKey)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("invalid kid");
+    }
+
+    @Test
+    void testFileKeyRingReloadsOnModification(@TempDir Path dir) throws Exception {
+        final Path file = dir.resolve("keys.properties");
+        write(file, "active=1\n1=" + encode(oldKey) + "\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000));
+        final KeyRing keyRing = KeyRing.watch(file, Duration.ZERO);
+        assertThat(keyRing.active().kid).isEqualTo("1");
+
+        write(file, "active=2\n1=" + encode(oldKey) + "\n2=" + encode(newKey) + "\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(2_000_000));
+        assertThat(keyRing.active().kid).isEqualTo("2");
+        assertThat(keyRing.get("1")).isNotNull();
+
+        // a broken file keeps the current keys
+        write(file, "1=" + encode(oldKey) + "\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(3_000_000));
+        assertThat(keyRing.active().kid).isEqualTo("2");
+    }
+
+    @Test
+    void testFileKeyRingChecksOncePerInterval(@TempDir Path dir) throws Exception {
+        final Path file = dir.resolve("keys.properties");
+        write(file, "active=1\n1=" + encode(oldKey) + "\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000));
+        final KeyRing keyRing = KeyRing.watch(file, Duration.ofHours(1));
+
+        write(file, "active=2\n2=" + encode(newKey) + "\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(2_000_000));
+        assertThat(keyRing.active().kid).isEqualTo("1");
+    }
+
+    private static Map<String, SecretKey> keys(String kid1, SecretKey key1, String kid2, SecretKey key2) {
+        final Map<String, SecretKey> keys = new HashMap<>();
+        keys.put(kid1, key1);
+        keys.put(kid2, key2);
+        return keys;
+    }
+
+    private static String encode(SecretKey key) {
+        return Base64.getEncoder().encodeToString(key.getEncoded());
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RejectedSessionCacheTests {
+
+    @Test
+    void testRejectedCookiesAreRemembered() {
+        // big enough, so that the randomly seeded fingerprints of both cookies do not collide
+        final RejectedSessionCache cache = new RejectedSessionCache(1 << 16, Duration.ofMinutes(1));
+        cache.put("tampered", InvalidSessionException.Reason.SIGNATURE);
+        cache.put("junk", InvalidSessionException.Reason.MALFORMED);
+
+        assertThat(cache.get("tampered")).isEqualTo(InvalidSessionException.Reason.SIGNATURE);
+        assertThat(cache.get("junk")).isEqualTo(InvalidSessionException.Reason.MALFORMED);
+        assertThat(cache.get("valid")).isNull();
+        assertThat(cache.hits()).isEqualTo(2);
+    }
+
+    @Test
+    void testExpiredSessionsAreNotCached() {
+        final RejectedSessionCache cache = new RejectedSessionCache(64, Duration.ofMinutes(1));
+        cache.put("expired", InvalidSessionException.Reason.EXPIRED);
+
+        assertThat(cache.get("expired")).isNull();
+    }
+
+    @Test
+    void testCacheIsClearedAfterTtl() throws Exception {
+        final RejectedSessionCache cache = new RejectedSessionCache(64, Duration.ofMillis(1));
+        cache.put("tampered", InvalidSessionException.Reason.SIGNATURE);
+        Thread.sleep(5);
+
+        assertThat(cache.get("tampered")).isNull();
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        final RejectedSessionCache cache = new RejectedSessionCache(16, Duration.ofMinutes(1));
+        for (int i = 0; i < 1000; i++) {
+            cache.put("junk" + i, InvalidSessionException.Reason.MALFORMED);
+        }
+
+        int remembered = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (cache.get("junk" + i) != null) {
+                remembered++;
+            }
+        }
+        assertThat(remembered).isBetween(1, 16);
+    }
+
+    @Test
+    void testInvalidConfiguration() {
+        assertThatThrownBy(() -> new RejectedSessionCache(0, Duration.ofMinutes(1))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new RejectedSessionCache(16, Duration.ZERO)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
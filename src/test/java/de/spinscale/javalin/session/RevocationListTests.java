@@ -0,0 +1,169 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RevocationListTests {
+
+    private final RevocationList revocationList = new RevocationList(16, Duration.ofMinutes(30));
+
+    @Test
+    void testRevokedSessionsAreRevoked() {
+        revocationList.revoke("session-1");
+
+        assertThat(revocationList.isRevoked("session-1")).isTrue();
+        assertThat(revocationList.isRevoked("session-2")).isFalse();
+        assertThat(revocationList.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testExpiredRevocationsAreForgotten() {
+        revocationList.revoke("expired", Instant.now().minusSeconds(1));
+        revocationList.revoke("valid", Instant.now().plusSeconds(60));
+
+        assertThat(revocationList.isRevoked("expired")).isFalse();
+        assertThat(revocationList.isRevoked("valid")).isTrue();
+        revocationList.purgeExpired();
+        assertThat(revocationList.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testFilterGrowsBeyondExpectedRevocations() {
+        for (int i = 0; i < 10_000; i++) {
+            revocationList.revoke("session-" + i);
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(revocationList.isRevoked("session-" + i)).isTrue();
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            falsePositives += revocationList.isRevoked("other-" + i) ? 1 : 0;
+        }
+        assertThat(falsePositives).isZero();
+    }
+
+    @Test
+    void testConcurrentRevocationsAreNotLost() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int thread = 0; thread < 4; thread++) {
+            final int offset = thread * 5_000;
+            executor.submit(() -> {
+                start.await();
+                for (int i = offset; i < offset + 5_000; i++) {
+                    revocationList.revoke("session-" + i);
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        for (int i = 0; i < 20_000; i++) {
+            assertThat(revocationList.isRevoked("session-" + i)).isTrue();
+        }
+    }
+
+    @Test
+    void testRevokedSessionsStayRevokedWhilePurging() throws Exception {
+        for (int i = 0; i < 1_000; i++) {
+            revocationList.revoke("session-" + i);
+        }
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Thread purger = new Thread(() -> {
+            while (running.get()) {
+                revocationList.purgeExpired();
+            }
+        });
+        purger.start();
+        try {
+            for (int round = 0; round < 200; round++) {
+                revocationList.revoke("late-" + round);
+                assertThat(revocationList.isRevoked("late-" + round)).isTrue();
+                for (int i = 0; i < 1_000; i++) {
+                    if (!revocationList.isRevoked("session-" + i)) {
+                        throw new AssertionError("session-" + i + " has been accepted in round " + round);
+                    }
+                }
+            }
+        } finally {
+            running.set(false);
+            purger.join();
+        }
+        for (int round = 0; round < 200; round++) {
+            assertThat(revocationList.isRevoked("late-" + round)).isTrue();
+        }
+    }
+
+    @Test
+    void testSnapshotCanBeLoaded(@TempDir Path dir) throws Exception {
+        final Path file = dir.resolve("revoked.txt");
+        revocationList.revoke("session-1");
+        revocationList.revoke("session-2");
+        revocationList.revoke("expired", Instant.now().minusSeconds(1));
+
+        revocationList.snapshot(file);
+        final RevocationList loaded = new RevocationList(16, Duration.ofMinutes(30));
+
+        assertThat(Files.readAllLines(file)).hasSize(2);
+        assertThat(loaded.load(file)).isEqualTo(2);
+        assertThat(loaded.isRevoked("session-1")).isTrue();
+        assertThat(loaded.isRevoked("session-2")).isTrue();
+        assertThat(loaded.isRevoked("expired")).isFalse();
+    }
+
+    @Test
+    void testLoadSkipsCommentsAndExpiredEntries(@TempDir Path dir) throws Exception {
+        final long now = Instant.now().getEpochSecond();
+        final List<String> lines = Arrays.asList("# revoked sessions", "", "session-1 " + (now + 60), "expired " + (now - 60));
+        final Path file = Files.write(dir.resolve("revoked.txt"), lines, StandardCharsets.UTF_8);
+
+        revocationList.load(file);
+
+        assertThat(revocationList.isRevoked("session-1")).isTrue();
+        assertThat(revocationList.isRevoked("expired")).isFalse();
+        assertThat(revocationList.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testInvalidEntryIsRejected(@TempDir Path dir) throws Exception {
+        final Path file = Files.write(dir.resolve("revoked.txt"), Arrays.asList("session-1"), StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> revocationList.load(file)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
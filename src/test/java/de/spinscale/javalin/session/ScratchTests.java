@@ -0,0 +1,54 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScratchTests {
+
+    @Test
+    void testOversizedBuffersAreNotRetained() {
+        final Scratch scratch = Scratch.get();
+
+        assertThat(scratch.first(Scratch.MAX_RETAINED_SIZE * 4)).hasSize(Scratch.MAX_RETAINED_SIZE * 4);
+        assertThat(scratch.second(Scratch.MAX_RETAINED_SIZE * 4)).hasSize(Scratch.MAX_RETAINED_SIZE * 4);
+
+        assertThat(scratch.first(100).length).isLessThanOrEqualTo(Scratch.MAX_RETAINED_SIZE);
+        assertThat(scratch.second(100).length).isLessThanOrEqualTo(Scratch.MAX_RETAINED_SIZE);
+        assertThat(scratch.firstBuffer(0, 100).capacity()).isLessThanOrEqualTo(Scratch.MAX_RETAINED_SIZE);
+    }
+
+    @Test
+    void testBuffersGrowUpToRetainedSize() {
+        final Scratch scratch = Scratch.get();
+
+        final byte[] buffer = scratch.first(Scratch.MAX_RETAINED_SIZE);
+        assertThat(buffer).hasSize(Scratch.MAX_RETAINED_SIZE);
+        assertThat(scratch.first(100)).isSameAs(buffer);
+    }
+
+    @Test
+    void testGrowSecondKeepsContent() {
+        final Scratch scratch = Scratch.get();
+        scratch.second(10)[3] = 42;
+
+        assertThat(scratch.growSecond(Scratch.MAX_RETAINED_SIZE * 2)[3]).isEqualTo((byte) 42);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SessionSchemaTests {
+
+    private static final SessionKey<String> USER = SessionKey.ofString("user");
+    private static final SessionKey<Long> VISITS = SessionKey.ofLong("visits").withDefault(0L);
+    private static final SessionKey<Instant> LOGIN = SessionKey.of("login", Instant.class, Instant::toEpochMilli,
+            value -> Instant.ofEpochMilli(((Number) value).longValue()));
+
+    private final SessionSchema schema = new SessionSchema(USER, VISITS, LOGIN);
+
+    @Test
+    void testValuesAreDecodedToTheirType() throws Exception {
+        final SessionCodec codec = new SchemaSessionCodec(new JwtSessionCodec(Keys.hmacShaKeyFor(new byte[32]), -1), schema);
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("user", "alice");
+        attributes.put("visits", 12L);
+        attributes.put("login", Instant.ofEpochMilli(1234567890123L));
+
+        final Map<String, Object> decoded = codec.decode(codec.encode(attributes));
+
+        assertThat(decoded).isEqualTo(attributes);
+        final CookieSession session = CookieSession.lazy(s -> decoded);
+        final long visits = session.get(VISITS);
+        assertThat(visits).isEqualTo(12L);
+        assertThat(session.get(LOGIN)).isEqualTo(Instant.ofEpochMilli(1234567890123L));
+    }
+
+    @Test
+    void testUnknownAndUnconvertibleValuesAreDropped() {
+        final Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("user", 42);
+        claims.put("visits", 3);
+        claims.put("unknown", "value");
+        claims.put("login", "not a number");
+        claims.put(ReservedClaims.ISSUED_AT, 1000L);
+
+        final Map<String, Object> attributes = schema.decode(claims);
+
+        assertThat(attributes).containsOnlyKeys("visits", ReservedClaims.ISSUED_AT);
+        assertThat(attributes.get("visits")).isEqualTo(3L);
+    }
+
+    @Test
+    void testDefaultValue() {
+        final CookieSession session = CookieSession.lazy(s -> new LinkedHashMap<>());
+        final long visits = session.get(VISITS);
+        assertThat(visits).isEqualTo(0L);
+        assertThat(session.get(USER)).isNull();
+
+        session.set(VISITS, 1L);
+        assertThat(session.get(VISITS)).isEqualTo(1L);
+    }
+
+    @Test
+    void testValuesOfAnotherTypeAreConvertedOrTreatedAsMissing() {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("user", 42);
+        attributes.put("visits", 3);
+        attributes.put("login", 1234567890123L);
+        final CookieSession session = CookieSession.lazy(s -> attributes);
+
+        assertThat(session.get(USER)).isNull();
+        final long visits = session.get(VISITS);
+        assertThat(visits).isEqualTo(3L);
+        assertThat(session.get(LOGIN)).isEqualTo(Instant.ofEpochMilli(1234567890123L));
+
+        session.set("visits", "three");
+        final long defaultVisits = session.get(VISITS);
+        assertThat(defaultVisits).isEqualTo(0L);
+    }
+
+    @Test
+    void testKeyNamesMustBeUniqueAndNotReserved() {
+        assertThatThrownBy(() -> new SessionSchema(USER, SessionKey.ofInteger("user")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new SessionSchema(SessionKey.ofLong(ReservedClaims.ISSUED_AT)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
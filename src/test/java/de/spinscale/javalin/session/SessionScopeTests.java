@@ -0,0 +1,93 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SessionScopeTests {
+
+    private final SessionScope scope = new SessionScope();
+
+    @Test
+    void testEmptyScopeMatchesAll() {
+        assertThat(scope.matchesAll()).isTrue();
+        assertThat(scope.matches(context("GET", "/anything"))).isTrue();
+    }
+
+    @Test
+    void testExcludePrefixAndExactPath() {
+        scope.exclude("/static/*");
+        scope.exclude("/health");
+
+        assertThat(scope.matchesAll()).isFalse();
+        assertThat(scope.matches(context("GET", "/static/app.js"))).isFalse();
+        assertThat(scope.matches(context("GET", "/static/"))).isFalse();
+        assertThat(scope.matches(context("GET", "/health"))).isFalse();
+        assertThat(scope.matches(context("GET", "/healthz"))).isTrue();
+        assertThat(scope.matches(context("GET", "/stat"))).isTrue();
+        assertThat(scope.matches(context("GET", "/"))).isTrue();
+    }
+
+    @Test
+    void testGlobs() {
+        scope.exclude("/assets/*.css");
+        scope.exclude("/img/**/thumb-?.png");
+
+        assertThat(scope.matches(context("GET", "/assets/main.css"))).isFalse();
+        assertThat(scope.matches(context("GET", "/assets/nested/main.css"))).isTrue();
+        assertThat(scope.matches(context("GET", "/img/a/b/thumb-1.png"))).isFalse();
+        assertThat(scope.matches(context("GET", "/img/a/b/thumb-12.png"))).isTrue();
+    }
+
+    @Test
+    void testIncludeWithExclude() {
+        scope.include("/app/*");
+        scope.exclude("/app/public/*");
+
+        assertThat(scope.matches(context("GET", "/app/login"))).isTrue();
+        assertThat(scope.matches(context("GET", "/app/public/logo.png"))).isFalse();
+        assertThat(scope.matches(context("GET", "/other"))).isFalse();
+    }
+
+    @Test
+    void testMethodsAndPredicate() {
+        scope.methods(HandlerType.GET, HandlerType.POST);
+        scope.predicate(ctx -> !ctx.path().endsWith(".ico"));
+
+        assertThat(scope.matches(context("GET", "/"))).isTrue();
+        assertThat(scope.matches(context("DELETE", "/"))).isFalse();
+        assertThat(scope.matches(context("GET", "/favicon.ico"))).isFalse();
+    }
+
+    private Context context(String method, String path) {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn(method);
+        when(request.getRequestURI()).thenReturn(path);
+        return new Context(request, mock(HttpServletResponse.class), Collections.emptyMap());
+    }
+}
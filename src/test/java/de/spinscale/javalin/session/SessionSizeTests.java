@@ -0,0 +1,89 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionSizeTests {
+
+    private final SecretKey key = Keys.hmacShaKeyFor("some_longer_secret_string_longer_than_256_bits".getBytes());
+
+    @Test
+    void testMinimumLengthIsLowerBoundOfAllFormats() {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("name", "Alexander \u00e4\u00f6\u00fc");
+        attributes.put("count", 12345L);
+        attributes.put("admin", true);
+        attributes.put("roles", Arrays.asList("user", "admin"));
+        attributes.put("nested", Collections.singletonMap("key", "value"));
+
+        for (SessionCodec codec : Arrays.asList(new JwtSessionCodec(key, -1), new BinarySessionCodec(KeyRing.of(key), -1),
+                new EncryptedSessionCodec(KeyRing.of(key)))) {
+            final int minimumLength = codec.minimumLength(attributes, 4096);
+            assertThat(minimumLength).isPositive().isLessThanOrEqualTo(codec.encode(attributes).length());
+        }
+    }
+
+    @Test
+    void testCountingStopsOnceLimitIsExceeded() {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            attributes.put("key" + i, repeat(100));
+        }
+
+        assertThat(SessionSize.minimumSize(attributes, 1_000_000)).isEqualTo(100 * 100 + 10 * 4 + 90 * 5);
+        assertThat(SessionSize.minimumSize(attributes, 500)).isGreaterThan(500).isLessThan(1000);
+    }
+
+    @Test
+    void testCompressionLowersEstimate() {
+        final Map<String, Object> attributes = Collections.singletonMap("foo", repeat(10_000));
+        final JwtSessionCodec jwtCodec = new JwtSessionCodec(key, 100);
+        final BinarySessionCodec binaryCodec = new BinarySessionCodec(KeyRing.of(key), 100);
+
+        assertThat(jwtCodec.minimumLength(attributes, 4096)).isPositive()
+                .isLessThanOrEqualTo(jwtCodec.encode(attributes).length());
+        assertThat(binaryCodec.minimumLength(attributes, 4096)).isPositive()
+                .isLessThanOrEqualTo(binaryCodec.encode(attributes).length());
+    }
+
+    @Test
+    void testCompressionStillRejectsHugeSessions() {
+        final Map<String, Object> attributes = Collections.singletonMap("foo", repeat(10_000_000));
+
+        assertThat(new JwtSessionCodec(key, 100).minimumLength(attributes, 4096)).isGreaterThan(4096);
+        assertThat(new BinarySessionCodec(KeyRing.of(key), 100).minimumLength(attributes, 4096)).isGreaterThan(4096);
+    }
+
+    private static String repeat(int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append('A');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright [2019] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package de.spinscale.javalin.session;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VerifiedSessionCacheTests {
+
+    @Test
+    void testHitAndMiss() {
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMinutes(1));
+
+        assertThat(cache.get("cookie")).isNull();
+        cache.put("cookie", Collections.singletonMap("foo", "bar"));
+        final Map<String, Object> attributes = cache.get("cookie");
+
+        assertThat(attributes).containsEntry("foo", "bar");
+        assertThat(cache.hits()).isEqualTo(1);
+        assertThat(cache.misses()).isEqualTo(1);
+    }
+
+    @Test
+    void testCachedAttributesCannotBeModified() {
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMinutes(1));
+        cache.put("cookie", Collections.singletonMap("foo", "bar"));
+
+        assertThatThrownBy(() -> cache.get("cookie").put("foo", "baz")).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testNestedValuesAreNotShared() {
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMinutes(1));
+        final List<Object> cart = new ArrayList<>(Arrays.asList("a", "b"));
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("cart", cart);
+        attributes.put("address", new LinkedHashMap<>(Collections.singletonMap("city", "Munich")));
+        cache.put("cookie", attributes);
+        // the request that decoded the cookie keeps using its values
+        cart.set(1, "mutated");
+
+        final Map<String, Object> first = cache.get("cookie");
+        ((List<Object>) first.get("cart")).set(1, "mutated0");
+        ((Map<String, Object>) first.get("address")).put("city", "Berlin");
+        final Map<String, Object> second = cache.get("cookie");
+
+        assertThat(second.get("cart")).isEqualTo(Arrays.asList("a", "b"));
+        assertThat(second.get("address")).isEqualTo(Collections.singletonMap("city", "Munich"));
+    }
+
+    @Test
+    void testEntriesOfOtherKeyGenerationAreDiscarded() {
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMinutes(1));
+        final Object generation = new Object();
+        cache.put("cookie", Collections.singletonMap("foo", "bar"), generation);
+
+        assertThat(cache.get("cookie", generation)).containsEntry("foo", "bar");
+        assertThat(cache.get("cookie", new Object())).isNull();
+        assertThat(cache.get("cookie", generation)).isNull();
+        assertThat(cache.evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void testEntriesRejectedByTheirClaimsAreDiscarded() {
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMinutes(1));
+        final long now = System.currentTimeMillis() / 1000;
+        cache.put("expired", Collections.singletonMap("exp", now - 1));
+        cache.put("not_yet_valid", Collections.singletonMap("nbf", now + 60));
+        cache.put("valid", Collections.singletonMap("exp", now + 60));
+
+        assertThat(cache.get("expired")).isNull();
+        assertThat(cache.get("not_yet_valid")).isNull();
+        assertThat(cache.get("valid")).isNotNull();
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        final VerifiedSessionCache cache = new VerifiedSessionCache(32, Duration.ofMinutes(1));
+        for (int i = 0; i < 1000; i++) {
+            cache.put("cookie_" + i, Collections.singletonMap("i", i));
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(32);
+        assertThat(cache.evictions()).isEqualTo(1000 - cache.size());
+    }
+
+    @Test
+    void testExpiredEntriesAreNotReturned() throws Exception {
+        final VerifiedSessionCache cache = new VerifiedSessionCache(16, Duration.ofMillis(1));
+        cache.put("cookie", Collections.singletonMap("foo", "bar"));
+        Thread.sleep(10);
+
+        assertThat(cache.get("cookie")).isNull();
+        assertThat(cache.evictions()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+}